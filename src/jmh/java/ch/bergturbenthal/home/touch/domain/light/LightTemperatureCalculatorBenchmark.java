@@ -0,0 +1,22 @@
+package ch.bergturbenthal.home.touch.domain.light;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LightTemperatureCalculatorBenchmark {
+  private final LightTemperatureSettings settings = new LightTemperatureSettings(0.5, 0.2);
+  private double brightness;
+
+  @Benchmark
+  public WarmColdValues calculateLight() {
+    brightness = brightness >= 1 ? 0 : brightness + 0.01;
+    return LightTemperatureCalculator.calculateLight(brightness, settings);
+  }
+}
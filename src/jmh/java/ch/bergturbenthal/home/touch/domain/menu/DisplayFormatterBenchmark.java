@@ -0,0 +1,54 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.menu.settings.Type;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayFormatterBenchmark {
+  @Param({"INTEGER", "STRING", "FLOAT"})
+  private Type type;
+
+  private AbstractDisplayHandler handler;
+  private String format;
+  private String value;
+  private Function<String, String> formatter;
+
+  @Setup
+  public void setup() {
+    handler = new AbstractDisplayHandler(null, new ObjectMapper(), null, null, null);
+    switch (type) {
+      case INTEGER:
+        format = "#,##0";
+        value = "12345";
+        break;
+      case STRING:
+        format = "{0} °C";
+        value = "21.5";
+        break;
+      case FLOAT:
+        format = "0.0";
+        value = "21.53";
+        break;
+    }
+    formatter = handler.createDisplayFormatter(type, format);
+  }
+
+  @Benchmark
+  public Function<String, String> createFormatter() {
+    return handler.createDisplayFormatter(type, format);
+  }
+
+  @Benchmark
+  public String format() {
+    return formatter.apply(value);
+  }
+}
@@ -0,0 +1,104 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import reactor.core.Disposable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivery of an incoming message to the listeners registered with {@link
+ * PahoMqttClient#listenTopic(String)}, with a mix of exact, {@code +} and {@code #} subscriptions
+ * like the menu handlers register them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicDispatchBenchmark {
+  @Param({"10", "100", "1000"})
+  private int subscriptionCount;
+
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+  private PahoMqttClient client;
+  private final List<Disposable> subscriptions = new ArrayList<>();
+  private final MqttMessage message = new MqttMessage("21.5".getBytes());
+  private String[] topics;
+  private int next;
+
+  @Setup
+  public void setup(final Blackhole blackhole) throws MqttException {
+    client =
+        new PahoMqttClient(
+            new MenuProperties(),
+            new EmptyDiscoveryClient(),
+            executorService,
+            new SimpleMeterRegistry());
+    topics = new String[subscriptionCount];
+    for (int i = 0; i < subscriptionCount; i++) {
+      final String topic;
+      switch (i % 4) {
+        case 0:
+          topic = "screen/display-" + i + "/touch";
+          break;
+        case 1:
+          topic = "sensor/room-" + i + "/+";
+          break;
+        case 2:
+          topic = "light/group-" + i + "/#";
+          break;
+        default:
+          topic = "value/item-" + i + "/state";
+      }
+      topics[i] = topic.replace("+", "temperature").replace("#", "brightness/set");
+      subscriptions.add(client.listenTopic(topic).subscribe(blackhole::consume));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    subscriptions.forEach(Disposable::dispose);
+    executorService.shutdown();
+  }
+
+  @Benchmark
+  public void dispatch() {
+    next = next + 1 == topics.length ? 0 : next + 1;
+    client.dispatch(topics[next], message);
+  }
+
+  @Benchmark
+  public void dispatchUnmatched() {
+    client.dispatch("unknown/topic/state", message);
+  }
+
+  private static class EmptyDiscoveryClient implements DiscoveryClient {
+    @Override
+    public String description() {
+      return "none";
+    }
+
+    @Override
+    public List<ServiceInstance> getInstances(final String serviceId) {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public List<String> getServices() {
+      return Collections.emptyList();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Finding the listeners of an incoming topic with {@link TopicTrie} compared to the former scan
+ * over all subscriptions with one compiled regex per topic filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicRoutingBenchmark {
+  private static final Pattern SPLIT_PATTERN = Pattern.compile(Pattern.quote("/"));
+
+  @Param({"10", "100", "1000"})
+  private int subscriptionCount;
+
+  private final TopicTrie<String> trie = new TopicTrie<>();
+  private final List<RegexListener> regexListeners = new ArrayList<>();
+  private String[] topics;
+  private int next;
+
+  @Setup
+  public void setup() {
+    topics = new String[subscriptionCount];
+    for (int i = 0; i < subscriptionCount; i++) {
+      final String filter;
+      switch (i % 4) {
+        case 0:
+          filter = "screen/display-" + i + "/touch";
+          break;
+        case 1:
+          filter = "sensor/room-" + i + "/+";
+          break;
+        case 2:
+          filter = "light/group-" + i + "/#";
+          break;
+        default:
+          filter = "value/item-" + i + "/state";
+      }
+      topics[i] = filter.replace("+", "temperature").replace("#", "brightness/set");
+      trie.put(filter, filter);
+      regexListeners.add(new RegexListener(parseTopic(filter), filter));
+    }
+  }
+
+  @Benchmark
+  public void trie(final Blackhole blackhole) {
+    trie.forEachMatch(nextTopic(), blackhole::consume);
+  }
+
+  @Benchmark
+  public void regexScan(final Blackhole blackhole) {
+    final String topic = nextTopic();
+    regexListeners.stream()
+        .filter(listener -> listener.pattern.matcher(topic).matches())
+        .map(listener -> listener.value)
+        .collect(Collectors.toList())
+        .forEach(blackhole::consume);
+  }
+
+  private String nextTopic() {
+    next = next + 1 == topics.length ? 0 : next + 1;
+    return topics[next];
+  }
+
+  private static Pattern parseTopic(final String topic) {
+    return Pattern.compile(
+        SPLIT_PATTERN
+            .splitAsStream(topic)
+            .map(
+                p -> {
+                  if (p.equals("#")) return ".*";
+                  else if (p.equals("+")) return "[^/]*";
+                  else return Pattern.quote(p);
+                })
+            .collect(Collectors.joining("/")));
+  }
+
+  private static class RegexListener {
+    private final Pattern pattern;
+    private final String value;
+
+    RegexListener(final Pattern pattern, final String value) {
+      this.pattern = pattern;
+      this.value = value;
+    }
+  }
+}
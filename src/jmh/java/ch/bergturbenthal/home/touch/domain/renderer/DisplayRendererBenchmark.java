@@ -0,0 +1,76 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
+import ch.bergturbenthal.home.touch.domain.settings.RendererSettings;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.awt.geom.Ellipse2D;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayRendererBenchmark {
+  private static final DisplayRenderer.ZoneAddress TEXT_ZONE =
+      DisplayRenderer.ZoneAddress.builder().column(0).row(0).colSpan(2).build();
+  private static final DisplayRenderer.ZoneAddress SHAPE_ZONE =
+      DisplayRenderer.ZoneAddress.builder().column(1).row(4).build();
+
+  @Param({"DEFAULT", "ROTATE_RIGHT", "ROTATE_LEFT", "UPSIDE_DOWN"})
+  private DisplaySettings.DisplayOrientation orientation;
+
+  @Param({"true", "false"})
+  private boolean deviceOriented;
+
+  private DisplayRenderer renderer;
+  private final Ellipse2D.Double shape = new Ellipse2D.Double(-1, -1, 2, 2);
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+  @Setup
+  public void setup() {
+    final DisplaySettings settings = new DisplaySettings();
+    settings.setOrientation(orientation);
+    final RendererSettings rendererSettings = new RendererSettings();
+    renderer =
+        new DisplayRenderer(
+            settings,
+            new TextLayoutCache(rendererSettings.getTextLayoutCacheSize()),
+            new SpriteAtlas(rendererSettings.getSpriteAtlasSize(), new DefaultResourceLoader()),
+            new PngEncoderPool(rendererSettings.getPngCompressionLevel(), 1),
+            deviceOriented);
+    renderer.clear();
+    renderer.drawText(
+        "21.5 °C",
+        TEXT_ZONE,
+        DisplayRenderer.VerticalAlignment.MIDDLE,
+        DisplayRenderer.HorizontalAlignment.CENTER);
+    renderer.fillShape(shape, SHAPE_ZONE);
+  }
+
+  @Benchmark
+  public void drawText() {
+    renderer.drawText(
+        "21.5 °C",
+        TEXT_ZONE,
+        DisplayRenderer.VerticalAlignment.MIDDLE,
+        DisplayRenderer.HorizontalAlignment.CENTER);
+  }
+
+  @Benchmark
+  public void fillShape() {
+    renderer.fillShape(shape, SHAPE_ZONE);
+  }
+
+  @Benchmark
+  public int render() throws IOException {
+    out.reset();
+    renderer.render(out);
+    return out.size();
+  }
+}
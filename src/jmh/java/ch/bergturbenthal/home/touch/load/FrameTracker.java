@@ -0,0 +1,100 @@
+package ch.bergturbenthal.home.touch.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the frames published to {@code <screen>/image} and {@code <screen>/imageDelta} and
+ * measures the time from a touch of a screen to its next frame. Only counts while measuring.
+ */
+class FrameTracker {
+  private final Map<String, Queue<Long>> pendingTouches = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> frames = new ConcurrentHashMap<>();
+  private final List<Long> touchLatencies = new ArrayList<>();
+  private final LongAdder touches = new LongAdder();
+  private final LongAdder unansweredTouches = new LongAdder();
+  private volatile boolean measuring;
+
+  /** Broker listener of all messages. */
+  void messagePublished(final String topic, final byte[] payload) {
+    final String screen;
+    if (topic.endsWith("/image")) screen = topic.substring(0, topic.length() - 6);
+    else if (topic.endsWith("/imageDelta")) screen = topic.substring(0, topic.length() - 11);
+    else return;
+    final long now = System.nanoTime();
+    if (measuring) frames.computeIfAbsent(screen, s -> new LongAdder()).increment();
+    final Queue<Long> pending = pendingTouches.get(screen);
+    if (pending == null) return;
+    Long touched;
+    while ((touched = pending.poll()) != null)
+      if (measuring)
+        synchronized (touchLatencies) {
+          touchLatencies.add(now - touched);
+        }
+  }
+
+  /** Called right before a touch is sent to {@code screen}. */
+  void touched(final String screen) {
+    final long now = System.nanoTime();
+    pendingTouches.computeIfAbsent(screen, s -> new ConcurrentLinkedQueue<>()).add(now);
+    if (measuring) touches.increment();
+  }
+
+  /** Gives up waiting for a frame on touches older than {@code timeoutNanos}. */
+  void expireTouches(final long timeoutNanos) {
+    final long expired = System.nanoTime() - timeoutNanos;
+    for (Queue<Long> pending : pendingTouches.values()) {
+      Long touched;
+      while ((touched = pending.peek()) != null && touched - expired < 0) {
+        pending.remove(touched);
+        if (measuring) unansweredTouches.increment();
+      }
+    }
+  }
+
+  /** Starts measuring from zero. */
+  void start() {
+    touches.reset();
+    unansweredTouches.reset();
+    frames.clear();
+    synchronized (touchLatencies) {
+      touchLatencies.clear();
+    }
+    measuring = true;
+  }
+
+  void stop() {
+    measuring = false;
+  }
+
+  long getTouches() {
+    return touches.sum();
+  }
+
+  long getUnansweredTouches() {
+    return unansweredTouches.sum();
+  }
+
+  long getFrames() {
+    return frames.values().stream().mapToLong(LongAdder::sum).sum();
+  }
+
+  Map<String, Long> getFramesPerScreen() {
+    final Map<String, Long> result = new TreeMap<>();
+    frames.forEach((screen, count) -> result.put(screen, count.sum()));
+    return result;
+  }
+
+  LoadReport.Percentiles getTouchLatency() {
+    synchronized (touchLatencies) {
+      return LoadReport.Percentiles.of(
+          touchLatencies.stream().mapToLong(Long::longValue).toArray());
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package ch.bergturbenthal.home.touch.load;
+
+import ch.bergturbenthal.home.touch.TouchmenuApplication;
+import ch.bergturbenthal.home.touch.domain.menu.TouchData;
+import ch.bergturbenthal.home.touch.domain.menu.settings.DisplayValue;
+import ch.bergturbenthal.home.touch.domain.menu.settings.MenuEntry;
+import ch.bergturbenthal.home.touch.domain.menu.settings.Screen;
+import ch.bergturbenthal.home.touch.domain.menu.settings.Type;
+import ch.bergturbenthal.home.touch.domain.menu.settings.ValueEdit;
+import ch.bergturbenthal.home.touch.domain.menu.settings.View;
+import ch.bergturbenthal.home.touch.domain.mqtt.broker.EmbeddedMqttBroker;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the application against an {@link EmbeddedMqttBroker} and simulates screens, sensors and
+ * touches: publishes generated screen configs to {@code settings/menu/load/screen-<n>}, updates
+ * the sensor topics shown on the screens and touches the screens at random positions. Measures the
+ * time from a touch to the next frame of the touched screen, the frame rate, CPU time and heap, and
+ * writes them as JSON report. Settings are given as {@code key=value} arguments, see {@link
+ * LoadSettings}.
+ */
+@Slf4j
+public class LoadGenerator {
+  private static final String SCREEN_PREFIX = "load/screen-";
+  private static final String SENSOR_PREFIX = "load/sensor-";
+  private static final int VALUES_PER_VIEW = 4;
+
+  private final LoadSettings settings;
+  private final EmbeddedMqttBroker broker;
+  private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(4);
+  private final FrameTracker frameTracker = new FrameTracker();
+  private final List<String> screenTopics = new ArrayList<>();
+  private final LongAdder sensorMessages = new LongAdder();
+  private final LongAdder heapSamples = new LongAdder();
+  private final LongAdder heapSum = new LongAdder();
+  private volatile boolean measuring;
+  private volatile long maxHeap;
+
+  public LoadGenerator(final LoadSettings settings) throws IOException {
+    this.settings = settings;
+    broker = new EmbeddedMqttBroker();
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> arguments = new LinkedHashMap<>();
+    for (String arg : args) {
+      final int split = arg.indexOf('=');
+      if (split < 0) throw new IllegalArgumentException("Expected key=value instead of " + arg);
+      arguments.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+    final LoadSettings settings =
+        Jackson2ObjectMapperBuilder.json().build().convertValue(arguments, LoadSettings.class);
+    final LoadReport report = new LoadGenerator(settings).run();
+    log.warn("Load report: " + report);
+    System.exit(0);
+  }
+
+  public LoadReport run() throws Exception {
+    broker.setListener("#", frameTracker::messagePublished);
+    final ConfigurableApplicationContext context = startApplication(broker);
+    try {
+      for (int i = 0; i < settings.getSensors(); i++)
+        broker.publish(sensorTopic(i), sensorValue(), 1, true);
+      publishScreens();
+      startSensors();
+      startTouches();
+      executorService.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+
+      Thread.sleep(settings.getWarmup().toMillis());
+      final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+      final com.sun.management.OperatingSystemMXBean osBean =
+          (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+      Arrays.asList(sensorMessages, heapSamples, heapSum).forEach(LongAdder::reset);
+      maxHeap = memoryBean.getHeapMemoryUsage().getUsed();
+      final long startCpu = osBean.getProcessCpuTime();
+      final long start = System.nanoTime();
+      frameTracker.start();
+      measuring = true;
+      Thread.sleep(settings.getDuration().toMillis());
+      measuring = false;
+      frameTracker.stop();
+      final double seconds = (System.nanoTime() - start) / 1e9;
+      final long cpu = osBean.getProcessCpuTime() - startCpu;
+
+      final long samples = heapSamples.sum();
+      final LoadReport report =
+          new LoadReport(
+              settings,
+              seconds,
+              frameTracker.getTouches(),
+              frameTracker.getUnansweredTouches(),
+              frameTracker.getTouchLatency(),
+              frameTracker.getFrames() / seconds,
+              sensorMessages.sum() / seconds,
+              cpu / 1e9 / seconds,
+              samples == 0 ? maxHeap : heapSum.sum() / samples,
+              maxHeap);
+      jsonMapper
+          .writerWithDefaultPrettyPrinter()
+          .writeValue(new File(settings.getReport()), report);
+      return report;
+    } finally {
+      executorService.shutdownNow();
+      context.close();
+      broker.close();
+    }
+  }
+
+  private void publishScreens() throws IOException {
+    final ObjectWriter yamlWriter =
+        Jackson2ObjectMapperBuilder.json()
+            .factory(new YAMLFactory())
+            .build()
+            .writerFor(Screen.class);
+    for (int i = 0; i < settings.getScreens(); i++) {
+      final String screenTopic = SCREEN_PREFIX + i;
+      final View valueView =
+          View.builder().displayValue(displayValues(i * VALUES_PER_VIEW)).build();
+      final View detailView =
+          View.builder().displayValue(displayValues((i + 1) * VALUES_PER_VIEW)).build();
+      final View editView =
+          View.builder()
+              .valueEdit(
+                  ValueEdit.builder()
+                      .topic(screenTopic + "/setpoint")
+                      .label("Setpoint")
+                      .format("0.0")
+                      .build())
+              .build();
+      final LinkedHashMap<String, MenuEntry> menu = new LinkedHashMap<>();
+      menu.put("details", MenuEntry.builder().label("Details").content(detailView).build());
+      menu.put("edit", MenuEntry.builder().label("Setpoint").content(editView).build());
+      final Screen screen =
+          Screen.builder()
+              .name("Load " + i)
+              .defaultView(valueView)
+              .rootMenu(View.builder().menu(menu).build())
+              .build();
+      broker.publish(
+          "settings/menu/" + screenTopic, yamlWriter.writeValueAsBytes(screen), 1, true);
+      screenTopics.add(screenTopic);
+    }
+  }
+
+  private List<DisplayValue> displayValues(final int firstSensor) {
+    final List<DisplayValue> values = new ArrayList<>();
+    for (int i = 0; i < VALUES_PER_VIEW; i++) {
+      final DisplayValue value = new DisplayValue();
+      final int sensor = (firstSensor + i) % settings.getSensors();
+      value.setLabel("Sensor " + sensor);
+      value.setTopic(sensorTopic(sensor));
+      value.setType(Type.FLOAT);
+      value.setFormat("0.0");
+      values.add(value);
+    }
+    return values;
+  }
+
+  private void startSensors() {
+    if (settings.getSensorRate() <= 0) return;
+    final long period = (long) (1e9 / settings.getSensorRate());
+    for (int i = 0; i < settings.getSensors(); i++) {
+      final String topic = sensorTopic(i);
+      executorService.scheduleAtFixedRate(
+          () -> {
+            broker.publish(topic, sensorValue(), 0, false);
+            sensorMessages.increment();
+          },
+          ThreadLocalRandom.current().nextLong(period),
+          period,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void startTouches() {
+    if (settings.getTouchRate() <= 0) return;
+    final long period = (long) (1e9 / settings.getTouchRate());
+    for (String screenTopic : screenTopics) {
+      executorService.scheduleAtFixedRate(
+          () -> {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final TouchData touch =
+                new TouchData(
+                    random.nextInt(100, 1000), random.nextInt(64), random.nextInt(128), 0);
+            try {
+              final byte[] payload = jsonMapper.writeValueAsBytes(touch);
+              frameTracker.touched(screenTopic);
+              broker.publish(screenTopic + "/touchPosition", payload, 1, false);
+            } catch (IOException e) {
+              log.warn("Cannot encode touch", e);
+            }
+          },
+          ThreadLocalRandom.current().nextLong(period),
+          period,
+          TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void sample() {
+    final long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    if (measuring) {
+      heapSamples.increment();
+      heapSum.add(used);
+      if (used > maxHeap) maxHeap = used;
+    }
+    frameTracker.expireTouches(settings.getTouchTimeout().toNanos());
+  }
+
+  /** Starts the application connected to {@code broker}. */
+  static ConfigurableApplicationContext startApplication(final EmbeddedMqttBroker broker) {
+    System.setProperty("java.awt.headless", "true");
+    return new SpringApplicationBuilder(TouchmenuApplication.class)
+        .properties(
+            "spring.cloud.kubernetes.enabled=false",
+            "spring.cloud.kubernetes.discovery.enabled=false",
+            broker.discoveryProperty("mqtt"),
+            "menu.mqtt.client-id=load-test",
+            "menu.display-settings.default.name=default")
+        .run();
+  }
+
+  private static String sensorTopic(final int index) {
+    return SENSOR_PREFIX + index + "/value";
+  }
+
+  private static byte[] sensorValue() {
+    final double value = ThreadLocalRandom.current().nextDouble(15, 30);
+    return String.format(Locale.ROOT, "%.1f", value).getBytes();
+  }
+}
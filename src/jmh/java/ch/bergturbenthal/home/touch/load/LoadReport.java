@@ -0,0 +1,49 @@
+package ch.bergturbenthal.home.touch.load;
+
+import lombok.Value;
+
+import java.util.Arrays;
+
+@Value
+public class LoadReport {
+  private LoadSettings settings;
+  private double seconds;
+  private long touches;
+  private long unansweredTouches;
+  /** Time from a touch to the next frame of its screen. */
+  private Percentiles touchLatencyMillis;
+  private double framesPerSecond;
+  private double sensorMessagesPerSecond;
+  /** CPU time of the whole process including broker and load generation, in cores. */
+  private double cpuCores;
+  private long averageHeapBytes;
+  private long maxHeapBytes;
+
+  @Value
+  public static class Percentiles {
+    private long count;
+    private double p50;
+    private double p90;
+    private double p99;
+    private double p999;
+    private double max;
+
+    static Percentiles of(final long[] valuesNanos) {
+      final long[] sorted = valuesNanos.clone();
+      Arrays.sort(sorted);
+      return new Percentiles(
+          sorted.length,
+          percentile(sorted, 0.5),
+          percentile(sorted, 0.9),
+          percentile(sorted, 0.99),
+          percentile(sorted, 0.999),
+          sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(final long[] sorted, final double quantile) {
+      if (sorted.length == 0) return 0;
+      final int index = (int) Math.ceil(quantile * sorted.length) - 1;
+      return sorted[Math.max(index, 0)] / 1e6;
+    }
+  }
+}
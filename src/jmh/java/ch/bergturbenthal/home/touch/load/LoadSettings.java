@@ -0,0 +1,22 @@
+package ch.bergturbenthal.home.touch.load;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class LoadSettings {
+  /** Count of simulated screens. */
+  private int screens = 10;
+  /** Count of sensor topics, spread over the views of the screens. */
+  private int sensors = 50;
+  /** Messages per second and sensor. */
+  private double sensorRate = 1;
+  /** Touches per second and screen. */
+  private double touchRate = 0.5;
+  private Duration warmup = Duration.ofSeconds(10);
+  private Duration duration = Duration.ofSeconds(60);
+  /** Touches without a frame within this time count as unanswered. */
+  private Duration touchTimeout = Duration.ofSeconds(5);
+  private String report = "target/load-report.json";
+}
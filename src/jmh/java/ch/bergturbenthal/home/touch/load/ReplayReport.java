@@ -0,0 +1,30 @@
+package ch.bergturbenthal.home.touch.load;
+
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+@Value
+public class ReplayReport {
+  private ReplaySettings settings;
+  private long messages;
+  private double seconds;
+  private long frames;
+  private Map<String, Long> framesPerScreen;
+  private long touches;
+  private long unansweredTouches;
+  /** Time from a touch to the next frame of its screen. */
+  private LoadReport.Percentiles touchLatencyMillis;
+  /** Differences to the baseline report, if given. */
+  private Comparison baseline;
+
+  @Value
+  public static class Comparison {
+    private long frameDifference;
+    /** Screens with a different frame count than in the baseline. */
+    private List<String> changedScreens;
+    private double p50DifferenceMillis;
+    private double p99DifferenceMillis;
+  }
+}
@@ -0,0 +1,20 @@
+package ch.bergturbenthal.home.touch.load;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class ReplaySettings {
+  /** Recording written by the application with {@code menu.mqtt.recording.file}. */
+  private String file;
+  /** Factor of the original pace, 0 replays as fast as possible. */
+  private double speed = 1;
+  /** Report of a previous replay to compare with, optional. */
+  private String baseline;
+  private String report = "target/replay-report.json";
+  /** Time to wait for frames after the last replayed message. */
+  private Duration drain = Duration.ofSeconds(2);
+  /** Touches without a frame within this time count as unanswered. */
+  private Duration touchTimeout = Duration.ofSeconds(5);
+}
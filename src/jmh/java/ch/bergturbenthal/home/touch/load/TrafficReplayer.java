@@ -0,0 +1,135 @@
+package ch.bergturbenthal.home.touch.load;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.broker.EmbeddedMqttBroker;
+import ch.bergturbenthal.home.touch.domain.mqtt.impl.MessageRecording;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds a recording of inbound messages through an {@link EmbeddedMqttBroker} into the
+ * application, at the original pace, a multiple of it or as fast as possible. Reports the frames
+ * per screen and the touch to frame latency, compared to the report of a previous replay if given,
+ * to find differences between builds. Settings are given as {@code key=value} arguments, see
+ * {@link ReplaySettings}.
+ */
+@Slf4j
+public class TrafficReplayer {
+  private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+  private final ReplaySettings settings;
+  private final ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+  private final FrameTracker frameTracker = new FrameTracker();
+
+  public TrafficReplayer(final ReplaySettings settings) {
+    this.settings = settings;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> arguments = new LinkedHashMap<>();
+    for (String arg : args) {
+      final int split = arg.indexOf('=');
+      if (split < 0) throw new IllegalArgumentException("Expected key=value instead of " + arg);
+      if (split < arg.length() - 1)
+        arguments.put(arg.substring(0, split), arg.substring(split + 1));
+    }
+    final ReplaySettings settings =
+        Jackson2ObjectMapperBuilder.json().build().convertValue(arguments, ReplaySettings.class);
+    final ReplayReport report = new TrafficReplayer(settings).run();
+    log.warn("Replay report: " + report);
+    System.exit(0);
+  }
+
+  public ReplayReport run() throws Exception {
+    if (settings.getFile() == null) throw new IllegalArgumentException("No recording given");
+    try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker()) {
+      broker.setListener("#", frameTracker::messagePublished);
+      final ConfigurableApplicationContext context = LoadGenerator.startApplication(broker);
+      try {
+        final long deadline = System.nanoTime() + WAIT_TIMEOUT;
+        while (!broker.hasSubscription("settings/menu/#")) {
+          if (System.nanoTime() > deadline)
+            throw new IllegalStateException("Application did not connect to the broker");
+          Thread.sleep(10);
+        }
+        frameTracker.start();
+        final AtomicLong messages = new AtomicLong();
+        final long start = System.nanoTime();
+        MessageRecording.read(
+            Paths.get(settings.getFile()),
+            message -> {
+              if (settings.getSpeed() > 0) {
+                final long wait =
+                    start + (long) (message.getNanos() / settings.getSpeed()) - System.nanoTime();
+                if (wait > 0)
+                  try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted replay", e);
+                  }
+              }
+              final String topic = message.getTopic();
+              if (topic.endsWith("/touchPosition"))
+                frameTracker.touched(topic.substring(0, topic.lastIndexOf('/')));
+              broker.publish(topic, message.getPayload(), message.getQos(), message.isRetained());
+              messages.incrementAndGet();
+            });
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(settings.getDrain().toMillis());
+        frameTracker.expireTouches(settings.getTouchTimeout().toNanos());
+        frameTracker.stop();
+        final LoadReport.Percentiles latency = frameTracker.getTouchLatency();
+        final ReplayReport report =
+            new ReplayReport(
+                settings,
+                messages.get(),
+                seconds,
+                frameTracker.getFrames(),
+                frameTracker.getFramesPerScreen(),
+                frameTracker.getTouches(),
+                frameTracker.getUnansweredTouches(),
+                latency,
+                settings.getBaseline() == null ? null : compare(latency));
+        jsonMapper
+            .writerWithDefaultPrettyPrinter()
+            .writeValue(new File(settings.getReport()), report);
+        return report;
+      } finally {
+        context.close();
+      }
+    }
+  }
+
+  private ReplayReport.Comparison compare(final LoadReport.Percentiles latency)
+      throws IOException {
+    final JsonNode baseline = jsonMapper.readTree(new File(settings.getBaseline()));
+    final Map<String, Long> framesPerScreen = frameTracker.getFramesPerScreen();
+    final JsonNode baselineFrames = baseline.path("framesPerScreen");
+    final TreeSet<String> screens = new TreeSet<>(framesPerScreen.keySet());
+    baselineFrames.fieldNames().forEachRemaining(screens::add);
+    final List<String> changedScreens = new ArrayList<>();
+    for (String screen : screens)
+      if (framesPerScreen.getOrDefault(screen, 0L) != baselineFrames.path(screen).asLong())
+        changedScreens.add(screen);
+    final JsonNode baselineLatency = baseline.path("touchLatencyMillis");
+    return new ReplayReport.Comparison(
+        frameTracker.getFrames() - baseline.path("frames").asLong(),
+        changedScreens,
+        latency.getP50() - baselineLatency.path("p50").asDouble(),
+        latency.getP99() - baselineLatency.path("p99").asDouble());
+  }
+}
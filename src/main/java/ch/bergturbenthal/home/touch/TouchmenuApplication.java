@@ -4,6 +4,7 @@ import ch.bergturbenthal.home.touch.domain.light.LightProcessor;
 import ch.bergturbenthal.home.touch.domain.menu.MenuProcessor;
 import ch.bergturbenthal.home.touch.domain.motiondetection.MotionDetectionProcessor;
 import ch.bergturbenthal.home.touch.domain.mqtt.impl.PahoMqttClient;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
 import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -23,7 +24,8 @@ import java.util.concurrent.ScheduledExecutorService;
       MenuProperties.class,
       MenuProcessor.class,
       LightProcessor.class,
-      MotionDetectionProcessor.class
+      MotionDetectionProcessor.class,
+      DisplayRendererFactory.class
     })
 @Import({SimpleDiscoveryClientAutoConfiguration.class
   //                , PropertyLogger.class
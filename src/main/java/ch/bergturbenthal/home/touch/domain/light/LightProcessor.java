@@ -65,7 +65,7 @@ public class LightProcessor {
         topicBase + "/warmStart",
         receivedMqttMessage -> {
           final MqttMessage message = receivedMqttMessage.getMessage();
-          currentWarmStart.set(parseDoubleValue(message, 0d));
+          currentWarmStart.set(parseDoubleValue(receivedMqttMessage, 0d));
           if (message.isRetained()) refresh.run();
           else {
             dimmerConsumer.accept(
@@ -80,7 +80,7 @@ public class LightProcessor {
         topicBase + "/brightBalance",
         receivedMqttMessage -> {
           final MqttMessage message = receivedMqttMessage.getMessage();
-          currentBrightBalance.set(parseDoubleValue(message, -1d));
+          currentBrightBalance.set(parseDoubleValue(receivedMqttMessage, -1d));
           if (message.isRetained()) refresh.run();
           else {
             dimmerConsumer.accept(1d);
@@ -93,8 +93,7 @@ public class LightProcessor {
     mqttClient.registerTopic(
         topicBase + "/value",
         receivedMqttMessage -> {
-          final MqttMessage message = receivedMqttMessage.getMessage();
-          currentDimmValue.set(parseDoubleValue(message, 0d));
+          currentDimmValue.set(parseDoubleValue(receivedMqttMessage, 0d));
           refresh.run();
         },
         valueDisposableConsumer);
@@ -106,9 +105,9 @@ public class LightProcessor {
     };
   }
 
-  protected double parseDoubleValue(final MqttMessage message, final double lowerBound) {
-    return Math.max(
-        lowerBound, Math.min(1.0, Double.parseDouble(new String(message.getPayload()))));
+  protected double parseDoubleValue(
+      final MqttClient.ReceivedMqttMessage message, final double lowerBound) {
+    return Math.max(lowerBound, Math.min(1.0, Double.parseDouble(message.getPayloadAsString())));
   }
 
 }
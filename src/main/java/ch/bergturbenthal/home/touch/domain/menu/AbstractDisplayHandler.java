@@ -3,32 +3,54 @@ package ch.bergturbenthal.home.touch.domain.menu;
 import ch.bergturbenthal.home.touch.domain.menu.settings.Type;
 import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
 import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
 import ch.bergturbenthal.home.touch.domain.renderer.Shapes;
+import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Mono;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.MessageFormat;
-import java.util.Base64;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
 
 @Slf4j
 public class AbstractDisplayHandler {
-  private static final Base64.Encoder encoder = Base64.getEncoder();
   private final MqttClient mqttClient;
   private final ObjectReader touchDataReader;
+  private final DisplayRendererFactory displayRendererFactory;
+  private final FramePublisher framePublisher;
+  private final RenderScheduler renderScheduler;
 
-  public AbstractDisplayHandler(final MqttClient mqttClient, final ObjectMapper mapper) {
+  public AbstractDisplayHandler(
+      final MqttClient mqttClient,
+      final ObjectMapper mapper,
+      final DisplayRendererFactory displayRendererFactory,
+      final FramePublisher framePublisher,
+      final RenderScheduler renderScheduler) {
     this.mqttClient = mqttClient;
     touchDataReader = mapper.readerFor(TouchData.class);
+    this.displayRendererFactory = displayRendererFactory;
+    this.framePublisher = framePublisher;
+    this.renderScheduler = renderScheduler;
+  }
+
+  protected DisplayRenderer createRenderer(final DisplaySettings settings) {
+    return displayRendererFactory.createRenderer(settings);
+  }
+
+  protected ScreenRefresh createRefresh(
+      final DisplayRenderer displayRenderer,
+      final String topic,
+      final List<DisplayEntry> displayList) {
+    return renderScheduler.createRefresh(() -> paint(displayRenderer, topic, displayList));
   }
 
   protected ShapeButtonDisplayEntry createBackButton(
@@ -81,47 +103,60 @@ public class AbstractDisplayHandler {
   protected Disposable startLoop(
       String topic,
       final DisplayRenderer displayRenderer,
-      final Runnable refresh,
+      final ScreenRefresh refresh,
       final List<DisplayEntry> displayList,
       Runnable defaultAction) {
-    refresh.run();
-    return mqttClient
-        .listenTopic(topic + "/touchPosition")
-        .map(MqttClient.ReceivedMqttMessage::getMessage)
-        .map(MqttMessage::getPayload)
-        .map(
-            d -> {
-              try {
-                return touchDataReader.<TouchData>readValue(d);
-              } catch (IOException e) {
-                throw new RuntimeException("Cannot decode message", e);
-              }
-            })
-        .map(d -> displayRenderer.calcTouchPosition(d.getX(), d.getY()))
-        .onErrorResume(
-            ex -> {
-              log.warn("Error processing touch message");
-              return Mono.empty();
-            })
-        .subscribe(
-            p -> {
-              Iterator<DisplayEntry> iterator = displayList.iterator();
-              DisplayEntry.TouchResult touchResult = DisplayEntry.TouchResult.IGNORED;
-              while (touchResult == DisplayEntry.TouchResult.IGNORED && iterator.hasNext())
-                touchResult = iterator.next().handleTouch(p);
-              // log.info("Touch result: "+touchResult);
-              switch (touchResult) {
-                case IGNORED:
-                  defaultAction.run();
-                  break;
-                case DIRTY:
-                  refresh.run();
-                  break;
-                case NOOP:
-                  break;
-              }
-            },
-            ex -> log.warn("Cannot update ui", ex));
+    refresh.start();
+    final Disposable touchDisposable =
+        mqttClient
+            .listenTopic(topic + "/touchPosition")
+            .map(MqttClient.ReceivedMqttMessage::getMessage)
+            .map(MqttMessage::getPayload)
+            .map(
+                d -> {
+                  try {
+                    return touchDataReader.<TouchData>readValue(d);
+                  } catch (IOException e) {
+                    throw new RuntimeException("Cannot decode message", e);
+                  }
+                })
+            .map(d -> displayRenderer.calcTouchPosition(d.getX(), d.getY()))
+            .onErrorResume(
+                ex -> {
+                  log.warn("Error processing touch message");
+                  return Mono.empty();
+                })
+            .subscribe(
+                p -> {
+                  Iterator<DisplayEntry> iterator = displayList.iterator();
+                  DisplayEntry.TouchResult touchResult = DisplayEntry.TouchResult.IGNORED;
+                  while (touchResult == DisplayEntry.TouchResult.IGNORED && iterator.hasNext())
+                    touchResult = iterator.next().handleTouch(p);
+                  // log.info("Touch result: "+touchResult);
+                  switch (touchResult) {
+                    case IGNORED:
+                      defaultAction.run();
+                      break;
+                    case DIRTY:
+                      refresh.requestImmediate();
+                      break;
+                    case NOOP:
+                      break;
+                  }
+                },
+                ex -> log.warn("Cannot update ui", ex));
+    if (!framePublisher.isDeltaEnabled()) return Disposables.composite(touchDisposable, refresh);
+    final Disposable keyframeDisposable =
+        mqttClient
+            .listenTopic(topic + "/requestKeyframe")
+            .filter(m -> !m.getMessage().isRetained())
+            .subscribe(
+                m -> {
+                  framePublisher.requestKeyframe(topic);
+                  refresh.request();
+                },
+                ex -> log.warn("Cannot process keyframe request", ex));
+    return Disposables.composite(touchDisposable, keyframeDisposable, refresh);
   }
 
   protected void setBackgroundLightEnabled(String topic, boolean enabled) {
@@ -137,22 +172,14 @@ public class AbstractDisplayHandler {
 
   protected void paint(
       final DisplayRenderer displayRenderer,
-      final String contentTopic,
+      final String topic,
       final List<DisplayEntry> displayList) {
     try {
       displayRenderer.clear();
       for (DisplayEntry entry : displayList) {
         entry.draw();
       }
-      final ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
-      displayRenderer.render(encoder.wrap(arrayOutputStream));
-      final MqttMessage message = new MqttMessage();
-      message.setRetained(true);
-      message.setQos(1);
-      message.setPayload(arrayOutputStream.toByteArray());
-      mqttClient
-          .publish(contentTopic, message)
-          .subscribe(response -> {}, ex -> log.warn("Cannot update image", ex));
+      framePublisher.publish(displayRenderer, topic);
     } catch (IOException ex) {
       log.warn("Cannot generate image", ex);
     }
@@ -173,7 +200,7 @@ public class AbstractDisplayHandler {
         default:
           {
             final MessageFormat messageFormat = new MessageFormat(dvFormat);
-            valueFormatter = messageFormat::format;
+            valueFormatter = c -> messageFormat.format(new Object[] {c});
           }
           break;
         case FLOAT:
@@ -0,0 +1,251 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.settings.ImagePublishSettings;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import ch.bergturbenthal.home.touch.domain.util.MurmurHash64;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes rendered frames of a screen to {@code <topic>/image}. Frames identical to the last
+ * published frame of the same topic are detected by a hash of the raw raster and skipped before
+ * encoding. With delta publishing enabled only the tiles changed since the last published frame
+ * are sent to {@code <topic>/imageDelta}, full keyframes are still sent on the configured interval
+ * and whenever a display requests one on {@code <topic>/requestKeyframe}.
+ */
+@Slf4j
+@Component
+public class FramePublisher {
+  private final MqttClient mqttClient;
+  private final ObjectWriter deltaWriter;
+  private final ImagePublishSettings settings;
+  private final Map<String, FrameState> frameStates = new ConcurrentHashMap<>();
+  private final Counter suppressedFrames;
+  private final Counter keyframes;
+  private final Counter deltaFrames;
+
+  public FramePublisher(
+      final MqttClient mqttClient,
+      final ObjectMapper mapper,
+      final MenuProperties properties,
+      final MeterRegistry meterRegistry) {
+    this.mqttClient = mqttClient;
+    suppressedFrames = meterRegistry.counter("touchmenu.frames", "result", "suppressed");
+    keyframes = meterRegistry.counter("touchmenu.frames", "result", "keyframe");
+    deltaFrames = meterRegistry.counter("touchmenu.frames", "result", "delta");
+    deltaWriter = mapper.writerFor(ImageDelta.class);
+    settings = properties.getImagePublish();
+    if (settings.getTileSize() <= 0 || settings.getTileSize() % 8 != 0)
+      throw new IllegalArgumentException(
+          "Tile size must be a positive multiple of 8, but is " + settings.getTileSize());
+  }
+
+  public boolean isDeltaEnabled() {
+    return settings.isDeltaEnabled();
+  }
+
+  public void requestKeyframe(String topic) {
+    final FrameState frameState = frameStates.get(topic);
+    if (frameState != null) frameState.requestKeyframe();
+  }
+
+  public void publish(final DisplayRenderer displayRenderer, final String topic)
+      throws IOException {
+    final BufferedImage frame = displayRenderer.renderFrame();
+    final long fingerprint = MurmurHash64.hash(frameData(frame));
+    final FrameState frameState = getFrameState(topic);
+    synchronized (frameState) {
+      if (!frameState.keyframeRequested && frameState.lastFingerprint == fingerprint) {
+        suppressedFrames.increment();
+        return;
+      }
+      frameState.lastFingerprint = fingerprint;
+      final long now = System.nanoTime();
+      if (!settings.isDeltaEnabled()
+          || frameState.isKeyframeDue(frame, now, settings.getKeyframeInterval().toNanos())) {
+        publishKeyframe(displayRenderer, frameState, frame);
+        if (settings.isDeltaEnabled()) frameState.storeKeyframe(frame, now);
+        else frameState.keyframeRequested = false;
+        return;
+      }
+      final List<Rectangle> changedRegions = frameState.findChangedRegions(frame);
+      if (changedRegions.isEmpty()) return;
+      final List<Tile> tiles = new ArrayList<>(changedRegions.size());
+      final FrameBuffer tileData = frameState.buffer;
+      for (Rectangle region : changedRegions) {
+        tileData.reset();
+        displayRenderer.encode(frame, region, tileData);
+        tiles.add(new Tile(region.x, region.y, tileData.toByteArray()));
+      }
+      final MqttMessage message = new MqttMessage();
+      message.setQos(1);
+      message.setPayload(
+          deltaWriter.writeValueAsBytes(new ImageDelta(frameState.nextSequence(), tiles)));
+      mqttClient
+          .publish(frameState.deltaTopic, message)
+          .subscribe(response -> {}, ex -> publishFailed(frameState, ex));
+      deltaFrames.increment();
+      frameState.storeFrame(frame);
+    }
+  }
+
+  private FrameState getFrameState(final String topic) {
+    final FrameState frameState = frameStates.get(topic);
+    if (frameState != null) return frameState;
+    return frameStates.computeIfAbsent(topic, FrameState::new);
+  }
+
+  private void publishKeyframe(
+      final DisplayRenderer displayRenderer, final FrameState frameState, final BufferedImage frame)
+      throws IOException {
+    final FrameBuffer pngData = frameState.buffer;
+    pngData.reset();
+    displayRenderer.encode(frame, pngData);
+    final MqttMessage message = new MqttMessage();
+    message.setRetained(true);
+    message.setQos(1);
+    message.setPayload(pngData.toBase64());
+    mqttClient
+        .publish(frameState.imageTopic, message)
+        .subscribe(response -> {}, ex -> publishFailed(frameState, ex));
+    keyframes.increment();
+  }
+
+  /**
+   * The fingerprint and the stored frame already describe the lost frame, a keyframe on the next
+   * publish makes sure the display gets it, even when nothing changes in the meantime.
+   */
+  private static void publishFailed(final FrameState frameState, final Throwable ex) {
+    log.warn("Cannot update image", ex);
+    frameState.requestKeyframe();
+  }
+
+  private static byte[] frameData(final BufferedImage frame) {
+    return ((DataBufferByte) frame.getRaster().getDataBuffer()).getData();
+  }
+
+  private static int scanlineStride(final BufferedImage frame) {
+    return ((MultiPixelPackedSampleModel) frame.getSampleModel()).getScanlineStride();
+  }
+
+  @Value
+  private static class ImageDelta {
+    private long sequence;
+    private List<Tile> tiles;
+  }
+
+  @Value
+  private static class Tile {
+    private int x;
+    private int y;
+    private byte[] image;
+  }
+
+  /** Keeps the encoded image between frames, only the Base64 payload is allocated per frame. */
+  private static class FrameBuffer extends ByteArrayOutputStream {
+    byte[] toBase64() {
+      return Base64.getEncoder().encode(ByteBuffer.wrap(buf, 0, count)).array();
+    }
+  }
+
+  private class FrameState {
+    private final String imageTopic;
+    private final String deltaTopic;
+    private final FrameBuffer buffer = new FrameBuffer();
+    private byte[] lastFrame = new byte[0];
+    private int width;
+    private int height;
+    private long lastKeyframe;
+    private long sequence;
+    private long lastFingerprint;
+    private boolean keyframeRequested = true;
+
+    FrameState(final String topic) {
+      imageTopic = topic + "/image";
+      deltaTopic = topic + "/imageDelta";
+    }
+
+    synchronized void requestKeyframe() {
+      keyframeRequested = true;
+    }
+
+    boolean isKeyframeDue(final BufferedImage frame, final long now, final long interval) {
+      return keyframeRequested
+          || frame.getWidth() != width
+          || frame.getHeight() != height
+          || now - lastKeyframe >= interval;
+    }
+
+    void storeKeyframe(final BufferedImage frame, final long now) {
+      width = frame.getWidth();
+      height = frame.getHeight();
+      lastKeyframe = now;
+      keyframeRequested = false;
+      storeFrame(frame);
+    }
+
+    void storeFrame(final BufferedImage frame) {
+      final byte[] data = frameData(frame);
+      if (lastFrame.length != data.length) lastFrame = new byte[data.length];
+      System.arraycopy(data, 0, lastFrame, 0, data.length);
+    }
+
+    long nextSequence() {
+      return ++sequence;
+    }
+
+    List<Rectangle> findChangedRegions(final BufferedImage frame) {
+      final byte[] data = frameData(frame);
+      final int stride = scanlineStride(frame);
+      final int tileSize = settings.getTileSize();
+      final int tileBytes = tileSize / 8;
+      final List<Rectangle> regions = new ArrayList<>();
+      for (int tileY = 0; tileY < height; tileY += tileSize) {
+        final int tileHeight = Math.min(tileSize, height - tileY);
+        Rectangle currentRegion = null;
+        for (int tileX = 0; tileX < width; tileX += tileSize) {
+          final int tileWidth = Math.min(tileSize, width - tileX);
+          final int firstByte = tileX / 8;
+          final int byteCount = Math.min(tileBytes, stride - firstByte);
+          boolean changed = false;
+          for (int y = tileY; y < tileY + tileHeight && !changed; y++) {
+            final int offset = y * stride + firstByte;
+            for (int i = offset; i < offset + byteCount; i++)
+              if (data[i] != lastFrame[i]) {
+                changed = true;
+                break;
+              }
+          }
+          if (!changed) currentRegion = null;
+          else if (currentRegion != null) currentRegion.width += tileWidth;
+          else {
+            currentRegion = new Rectangle(tileX, tileY, tileWidth, tileHeight);
+            regions.add(currentRegion);
+          }
+        }
+      }
+      return regions;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package ch.bergturbenthal.home.touch.domain.menu;
 
 import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
 import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
 import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
 import ch.bergturbenthal.home.touch.domain.menu.settings.MenuEntry;
 import ch.bergturbenthal.home.touch.domain.menu.settings.View;
@@ -16,18 +17,22 @@ import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 @Slf4j
 @Service
 public class MenuHandler extends AbstractDisplayHandler {
-  public MenuHandler(final MqttClient mqttClient, final ObjectMapper mapper) {
-    super(mqttClient, mapper);
+  public MenuHandler(
+      final MqttClient mqttClient,
+      final ObjectMapper mapper,
+      final DisplayRendererFactory displayRendererFactory,
+      final FramePublisher framePublisher,
+      final RenderScheduler renderScheduler) {
+    super(mqttClient, mapper, displayRendererFactory, framePublisher, renderScheduler);
   }
 
   Mono<String> showMenu(String topic, View view, DisplaySettings settings) {
-    final DisplayRenderer displayRenderer = new DisplayRenderer(settings);
+    final DisplayRenderer displayRenderer = createRenderer(settings);
     Queue<Disposable> disposables = new ConcurrentLinkedDeque<>();
     return Mono.create(
             (MonoSink<String> sink) -> {
@@ -41,14 +46,14 @@ public class MenuHandler extends AbstractDisplayHandler {
               AtomicInteger startEntry = new AtomicInteger(0);
               int maxStartEnry = Math.max(menu.size() - visibleMenuEntryCount, 0);
               List<DisplayEntry> displayList = new ArrayList<>();
-              AtomicReference<Runnable> refresh = new AtomicReference<>(() -> {});
+              final ScreenRefresh refresh = createRefresh(displayRenderer, topic, displayList);
               if (enableScroll) {
                 displayList.add(
                     createUpButton(
                         displayRenderer,
                         () -> {
                           startEntry.updateAndGet(i -> Math.max(i - 1, 0));
-                          refresh.get().run();
+                          refresh.requestImmediate();
                         },
                         true));
                 displayList.add(
@@ -57,7 +62,7 @@ public class MenuHandler extends AbstractDisplayHandler {
                         touchRowCount - 1,
                         () -> {
                           startEntry.updateAndGet(i -> Math.min(i + 1, maxStartEnry));
-                          refresh.get().run();
+                          refresh.requestImmediate();
                         },
                         true));
               }
@@ -79,21 +84,43 @@ public class MenuHandler extends AbstractDisplayHandler {
                         .column(0)
                         .colSpan(settings.getTouchColumnCount())
                         .build();
+                final DisplayRenderer.ZoneAddress iconPosition =
+                    DisplayRenderer.ZoneAddress.builder().row(menuStartRow + i).column(0).build();
+                final DisplayRenderer.ZoneAddress labelBesideIconPosition =
+                    DisplayRenderer.ZoneAddress.builder()
+                        .row(menuStartRow + i)
+                        .column(1)
+                        .colSpan(settings.getTouchColumnCount() - 1)
+                        .build();
                 displayList.add(
                     new DisplayEntry() {
                       @Override
                       public void draw() {
-                        currentEntry
-                            .get()
-                            .map(Map.Entry::getValue)
-                            .map(MenuEntry::getLabel)
-                            .ifPresent(
-                                menuEntry ->
-                                    displayRenderer.drawText(
-                                        menuEntry,
-                                        position,
-                                        DisplayRenderer.VerticalAlignment.MIDDLE,
-                                        DisplayRenderer.HorizontalAlignment.LEFT));
+                        currentEntry.get().map(Map.Entry::getValue).ifPresent(this::drawEntry);
+                      }
+
+                      private void drawEntry(final MenuEntry menuEntry) {
+                        final String icon = menuEntry.getIcon();
+                        final String label = menuEntry.getLabel();
+                        if (icon == null) {
+                          if (label != null) drawLabel(label, position);
+                          return;
+                        }
+                        if (label == null || settings.getTouchColumnCount() < 2) {
+                          displayRenderer.drawIcon(icon, position);
+                          return;
+                        }
+                        displayRenderer.drawIcon(icon, iconPosition);
+                        drawLabel(label, labelBesideIconPosition);
+                      }
+
+                      private void drawLabel(
+                          final String label, final DisplayRenderer.ZoneAddress labelPosition) {
+                        displayRenderer.drawText(
+                            label,
+                            labelPosition,
+                            DisplayRenderer.VerticalAlignment.MIDDLE,
+                            DisplayRenderer.HorizontalAlignment.LEFT);
                       }
 
                       @Override
@@ -111,9 +138,8 @@ public class MenuHandler extends AbstractDisplayHandler {
                       }
                     });
               }
-              refresh.set(() -> paint(displayRenderer, topic + "/image", displayList));
               disposables.add(
-                  startLoop(topic, displayRenderer, refresh.get(), displayList, () -> {}));
+                  startLoop(topic, displayRenderer, refresh, displayList, () -> {}));
             })
         .doFinally(
             signal -> {
@@ -0,0 +1,43 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the {@link ScreenRefresh} limiting how often each screen is rendered. Deferred renders
+ * run on threads of their own, so rendering and encoding frames never delays the MQTT housekeeping
+ * on the shared scheduler.
+ */
+@Component
+public class RenderScheduler {
+  private final ScheduledExecutorService executorService;
+  private final long minFrameInterval;
+
+  public RenderScheduler(final MenuProperties properties) {
+    final AtomicInteger threadIndex = new AtomicInteger();
+    executorService =
+        Executors.newScheduledThreadPool(
+            Math.max(1, properties.getRenderer().getRenderThreads()),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "render-" + threadIndex.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    minFrameInterval = properties.getRenderer().getMinFrameInterval().toNanos();
+  }
+
+  public ScreenRefresh createRefresh(final Runnable render) {
+    return new ScreenRefresh(render, executorService, minFrameInterval);
+  }
+
+  @PreDestroy
+  public void close() {
+    executorService.shutdownNow();
+  }
+}
@@ -0,0 +1,124 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces refresh requests of one screen. A request marks the screen dirty, bursts of requests
+ * end up in one render with the latest state, and renders are at least the minimal frame interval
+ * apart. Immediate requests, used for touch feedback, skip the interval. Nothing is rendered
+ * before {@link #start()}. Requests may come from any thread, renders of the same screen never
+ * overlap.
+ */
+@Slf4j
+public class ScreenRefresh implements Disposable {
+  private final Runnable render;
+  private final ScheduledExecutorService executorService;
+  private final long minFrameInterval;
+  private boolean dirty;
+  private boolean immediate;
+  private boolean rendering;
+  private boolean started;
+  private boolean disposed;
+  private long lastRender;
+  private ScheduledFuture<?> pendingRender;
+
+  ScreenRefresh(
+      final Runnable render,
+      final ScheduledExecutorService executorService,
+      final long minFrameInterval) {
+    this.render = render;
+    this.executorService = executorService;
+    this.minFrameInterval = minFrameInterval;
+    lastRender = System.nanoTime() - minFrameInterval;
+  }
+
+  /** Renders the first frame, requests before only mark the screen dirty. */
+  public void start() {
+    synchronized (this) {
+      started = true;
+    }
+    request(true);
+  }
+
+  /** Renders now if the last frame is old enough, otherwise once the interval is over. */
+  public void request() {
+    request(false);
+  }
+
+  /** Renders now, or right after a render already running. */
+  public void requestImmediate() {
+    request(true);
+  }
+
+  private void request(final boolean immediateRequested) {
+    synchronized (this) {
+      if (disposed) return;
+      dirty = true;
+      immediate |= immediateRequested;
+      if (!started || rendering) return;
+      if (!immediate && schedulePendingRender()) return;
+      if (pendingRender != null) {
+        pendingRender.cancel(false);
+        pendingRender = null;
+      }
+      rendering = true;
+    }
+    renderWhileDirty();
+  }
+
+  private void renderPending() {
+    synchronized (this) {
+      pendingRender = null;
+      if (disposed || rendering || !dirty) return;
+      rendering = true;
+    }
+    renderWhileDirty();
+  }
+
+  private void renderWhileDirty() {
+    while (true) {
+      synchronized (this) {
+        dirty = false;
+        immediate = false;
+        lastRender = System.nanoTime();
+      }
+      try {
+        render.run();
+      } catch (RuntimeException ex) {
+        log.warn("Cannot refresh screen", ex);
+      }
+      synchronized (this) {
+        if (disposed || !dirty || !immediate && schedulePendingRender()) {
+          rendering = false;
+          return;
+        }
+      }
+    }
+  }
+
+  /** @return true if the frame interval is not over yet and the render is left to the timer */
+  private boolean schedulePendingRender() {
+    final long delay = lastRender + minFrameInterval - System.nanoTime();
+    if (delay <= 0) return false;
+    if (pendingRender == null)
+      pendingRender = executorService.schedule(this::renderPending, delay, TimeUnit.NANOSECONDS);
+    return true;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    disposed = true;
+    if (pendingRender != null) pendingRender.cancel(false);
+    pendingRender = null;
+  }
+
+  @Override
+  public synchronized boolean isDisposed() {
+    return disposed;
+  }
+}
@@ -3,7 +3,9 @@ package ch.bergturbenthal.home.touch.domain.menu;
 import ch.bergturbenthal.home.touch.domain.menu.settings.Type;
 import ch.bergturbenthal.home.touch.domain.menu.settings.ValueEdit;
 import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
 import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
 import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -25,8 +27,13 @@ import java.util.function.Function;
 public class ValueEditHandler extends AbstractDisplayHandler {
   private final MqttClient mqttClient;
 
-  public ValueEditHandler(final MqttClient mqttClient, final ObjectMapper mapper) {
-    super(mqttClient, mapper);
+  public ValueEditHandler(
+      final MqttClient mqttClient,
+      final ObjectMapper mapper,
+      final DisplayRendererFactory displayRendererFactory,
+      final FramePublisher framePublisher,
+      final RenderScheduler renderScheduler) {
+    super(mqttClient, mapper, displayRendererFactory, framePublisher, renderScheduler);
     this.mqttClient = mqttClient;
   }
 
@@ -34,12 +41,12 @@ public class ValueEditHandler extends AbstractDisplayHandler {
       String screenTopic, ValueEdit valueEdit, DisplaySettings displaySettings) {
     return Mono.create(
         sink -> {
-          final DisplayRenderer displayRenderer = new DisplayRenderer(displaySettings);
+          final DisplayRenderer displayRenderer = createRenderer(displaySettings);
           final String valueTopic = valueEdit.getTopic();
           final List<DisplayEntry> displayList = Collections.synchronizedList(new ArrayList<>());
           List<Disposable> cleanupActions = new ArrayList<>();
 
-          final AtomicReference<Runnable> refresh = new AtomicReference<>(() -> {});
+          final ScreenRefresh refresh = createRefresh(displayRenderer, screenTopic, displayList);
           AtomicReference<String> lastTakenValue =
               new AtomicReference<>(
                   valueEdit.getType() == Type.INTEGER
@@ -47,10 +54,11 @@ public class ValueEditHandler extends AbstractDisplayHandler {
                       : Double.toString(valueEdit.getDefaultValue()));
           mqttClient.registerTopic(
               valueTopic,
+              OverflowPolicy.latest(),
               message -> {
-                final String value = new String(message.getMessage().getPayload());
+                final String value = message.getPayloadAsString();
                 lastTakenValue.set(value);
-                refresh.get().run();
+                refresh.request();
               },
               cleanupActions::add);
 
@@ -89,18 +97,19 @@ public class ValueEditHandler extends AbstractDisplayHandler {
           int rowIndex = 1;
           final String label = valueEdit.getLabel();
           if (label != null) {
-            final int labelRow = rowIndex++;
+            final DisplayRenderer.ZoneAddress labelPosition =
+                DisplayRenderer.ZoneAddress.builder()
+                    .row(rowIndex++)
+                    .column(0)
+                    .colSpan(displaySettings.getTouchColumnCount())
+                    .build();
             displayList.add(
                 new DisplayEntry() {
                   @Override
                   public void draw() {
                     displayRenderer.drawText(
                         label,
-                        DisplayRenderer.ZoneAddress.builder()
-                            .row(labelRow)
-                            .column(0)
-                            .colSpan(displaySettings.getTouchColumnCount())
-                            .build(),
+                        labelPosition,
                         DisplayRenderer.VerticalAlignment.MIDDLE,
                         DisplayRenderer.HorizontalAlignment.LEFT);
                   }
@@ -111,7 +120,12 @@ public class ValueEditHandler extends AbstractDisplayHandler {
                   }
                 });
           }
-          final int valueRow = rowIndex++;
+          final DisplayRenderer.ZoneAddress valuePosition =
+              DisplayRenderer.ZoneAddress.builder()
+                  .row(rowIndex++)
+                  .column(0)
+                  .colSpan(displaySettings.getTouchColumnCount())
+                  .build();
           final Function<String, String> displayFormatter =
               createDisplayFormatter(valueEdit.getType(), valueEdit.getFormat());
           displayList.add(
@@ -121,11 +135,7 @@ public class ValueEditHandler extends AbstractDisplayHandler {
                   final String valueString = displayFormatter.apply(lastTakenValue.get());
                   displayRenderer.drawText(
                       valueString,
-                      DisplayRenderer.ZoneAddress.builder()
-                          .row(valueRow)
-                          .column(0)
-                          .colSpan(displaySettings.getTouchColumnCount())
-                          .build(),
+                      valuePosition,
                       DisplayRenderer.VerticalAlignment.MIDDLE,
                       DisplayRenderer.HorizontalAlignment.LEFT);
                 }
@@ -143,10 +153,9 @@ public class ValueEditHandler extends AbstractDisplayHandler {
           displayList.add(
               createBackButton(
                   displayRenderer, displaySettings.getTouchRowCount() - 1, exitAction, false));
-          refresh.set(() -> paint(displayRenderer, screenTopic + "/image", displayList));
           cleanupActions.add(
               startLoop(
-                  screenTopic, displayRenderer, refresh.get(), displayList, () -> sink.success()));
+                  screenTopic, displayRenderer, refresh, displayList, () -> sink.success()));
           sink.onDispose(() -> cleanupActions.forEach(Disposable::dispose));
         });
   }
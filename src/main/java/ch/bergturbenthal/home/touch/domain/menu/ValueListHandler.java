@@ -3,7 +3,9 @@ package ch.bergturbenthal.home.touch.domain.menu;
 import ch.bergturbenthal.home.touch.domain.menu.settings.DisplayValue;
 import ch.bergturbenthal.home.touch.domain.menu.settings.View;
 import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
 import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
 import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -28,8 +30,13 @@ import java.util.function.Supplier;
 public class ValueListHandler extends AbstractDisplayHandler {
   private MqttClient mqttClient;
 
-  public ValueListHandler(final MqttClient mqttClient, ObjectMapper mapper) {
-    super(mqttClient, mapper);
+  public ValueListHandler(
+      final MqttClient mqttClient,
+      final ObjectMapper mapper,
+      final DisplayRendererFactory displayRendererFactory,
+      final FramePublisher framePublisher,
+      final RenderScheduler renderScheduler) {
+    super(mqttClient, mapper, displayRendererFactory, framePublisher, renderScheduler);
     this.mqttClient = mqttClient;
   }
 
@@ -41,12 +48,13 @@ public class ValueListHandler extends AbstractDisplayHandler {
       final boolean enabledBackgroundLight) {
     return Mono.create(
         sink -> {
-          final DisplayRenderer displayRenderer = new DisplayRenderer(settings);
+          final DisplayRenderer displayRenderer = createRenderer(settings);
           final List<DisplayValue> displayValue = view.getDisplayValue();
           final int touchRowCount = settings.getTouchRowCount();
           final int touchColumnCount = settings.getTouchColumnCount();
           final Queue<Disposable> cleanupQueue = new ConcurrentLinkedDeque<>();
-          final AtomicReference<Runnable> refresh = new AtomicReference<>(() -> {});
+          final List<DisplayEntry> displayList = new ArrayList<>();
+          final ScreenRefresh refresh = createRefresh(displayRenderer, topic, displayList);
           final boolean hasCloseButton = showBackButton;
           setBackgroundLightEnabled(topic + "/enableBacklight", enabledBackgroundLight);
 
@@ -68,10 +76,11 @@ public class ValueListHandler extends AbstractDisplayHandler {
               // log.info("Register for " + dv.getTopic());
               mqttClient.registerTopic(
                   dv.getTopic(),
+                  OverflowPolicy.latest(),
                   message -> {
-                    final String stringMessage = new String(message.getMessage().getPayload());
+                    final String stringMessage = message.getPayloadAsString();
                     final String lastMessage = lastValue.getAndSet(stringMessage);
-                    if (!Objects.equals(lastMessage, stringMessage)) refresh.get().run();
+                    if (!Objects.equals(lastMessage, stringMessage)) refresh.request();
                   },
                   e -> {
                     cleanupQueue.add(
@@ -92,17 +101,16 @@ public class ValueListHandler extends AbstractDisplayHandler {
           final AtomicInteger firstRow = new AtomicInteger(0);
           int maxFirstRow = Math.max(menuRowCount - visibleRows, 0);
           final int lastRow = touchRowCount - 1;
-          final List<DisplayEntry> displayList = new ArrayList<>();
 
           final Runnable upAction =
               () -> {
                 firstRow.updateAndGet(r -> Math.max(r - 1, 0));
-                refresh.get().run();
+                refresh.requestImmediate();
               };
           final Runnable downAction =
               () -> {
                 firstRow.updateAndGet(r -> Math.min(r + 1, maxFirstRow));
-                refresh.get().run();
+                refresh.requestImmediate();
               };
           if (enableScroll) {
             displayList.add(createUpButton(displayRenderer, upAction, hasCloseButton));
@@ -115,6 +123,12 @@ public class ValueListHandler extends AbstractDisplayHandler {
           int menuStartRow = enableScroll ? 1 : 0;
           for (int i = 0; i < visibleRows; i++) {
             final int finalI = i;
+            final DisplayRenderer.ZoneAddress position =
+                DisplayRenderer.ZoneAddress.builder()
+                    .column(0)
+                    .row(finalI + menuStartRow)
+                    .colSpan(touchColumnCount)
+                    .build();
             displayList.add(
                 new DisplayEntry() {
                   @Override
@@ -125,11 +139,7 @@ public class ValueListHandler extends AbstractDisplayHandler {
                       final Supplier<String> menuEntry = menuEntries.get(index);
                       displayRenderer.drawText(
                           menuEntry.get(),
-                          DisplayRenderer.ZoneAddress.builder()
-                              .column(0)
-                              .row(finalI + menuStartRow)
-                              .colSpan(touchColumnCount)
-                              .build(),
+                          position,
                           DisplayRenderer.VerticalAlignment.MIDDLE,
                           DisplayRenderer.HorizontalAlignment.LEFT);
                     } catch (Exception ex) {
@@ -143,12 +153,11 @@ public class ValueListHandler extends AbstractDisplayHandler {
                   }
                 });
           }
-          refresh.set(() -> paint(displayRenderer, topic + "/image", displayList));
           cleanupQueue.add(
               startLoop(
                   topic,
                   displayRenderer,
-                  refresh.get(),
+                  refresh,
                   displayList,
                   () -> sink.success(ExitReason.TOUCH)));
           sink.onDispose(
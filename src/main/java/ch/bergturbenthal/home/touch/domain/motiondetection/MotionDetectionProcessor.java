@@ -92,7 +92,7 @@ public class MotionDetectionProcessor {
     mqttClient.registerTopic(
         topicBase + "/onValue",
         receivedMqttMessage -> {
-          onValueReference.set(new String(receivedMqttMessage.getMessage().getPayload()));
+          onValueReference.set(receivedMqttMessage.getPayloadAsString());
           refresh.run();
         },
         onValueDisposableConsumer);
@@ -100,7 +100,7 @@ public class MotionDetectionProcessor {
     mqttClient.registerTopic(
         topicBase + "/offValue",
         receivedMqttMessage -> {
-          offValueReference.set(new String(receivedMqttMessage.getMessage().getPayload()));
+          offValueReference.set(receivedMqttMessage.getPayloadAsString());
           refresh.run();
         },
         offValueDisposableConsumer);
@@ -109,14 +109,14 @@ public class MotionDetectionProcessor {
         topicBase + "/onTime",
         receivedMqttMessage ->
             keepOnDuration.set(
-                secondsTuDuration(new String(receivedMqttMessage.getMessage().getPayload()))),
+                secondsTuDuration(receivedMqttMessage.getPayloadAsString())),
         onTimeDisposableConsumer);
     final Consumer<Disposable> offTimeDisposableConsumer = new DisposableConsumer();
     mqttClient.registerTopic(
         topicBase + "/offTime",
         receivedMqttMessage ->
             blindDuration.set(
-                secondsTuDuration(new String(receivedMqttMessage.getMessage().getPayload()))),
+                secondsTuDuration(receivedMqttMessage.getPayloadAsString())),
         offTimeDisposableConsumer);
     return () -> {
       inputDisposable.accept(null);
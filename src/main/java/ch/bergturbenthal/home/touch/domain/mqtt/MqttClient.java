@@ -10,11 +10,34 @@ import java.util.function.Consumer;
 public interface MqttClient {
   Flux<MqttWireMessage> publish(String topic, MqttMessage message);
 
-  Flux<ReceivedMqttMessage> listenTopic(String topic);
+  default Flux<ReceivedMqttMessage> listenTopic(String topic) {
+    return listenTopic(topic, OverflowPolicy.unbounded());
+  }
+
+  /**
+   * Retained and live messages of the topic filter, buffered for the subscriber according to
+   * {@code overflowPolicy}.
+   */
+  Flux<ReceivedMqttMessage> listenTopic(String topic, OverflowPolicy overflowPolicy);
+
   void send(String topic, MqttMessage message);
 
+  default void registerTopic(
+      final String topic,
+      final Consumer<ReceivedMqttMessage> mqttMessageConsumer,
+      final Consumer<Disposable> disposableConsumer) {
+    registerTopic(topic, OverflowPolicy.unbounded(), mqttMessageConsumer, disposableConsumer);
+  }
+
+  /**
+   * Passes the messages of the topic filter to {@code mqttMessageConsumer}. With a bounded {@code
+   * overflowPolicy} the consumer runs on a listener thread and takes one message at a time,
+   * messages arriving meanwhile are kept according to the policy. Otherwise it runs on the thread
+   * dispatching the message.
+   */
   void registerTopic(
       final String topic,
+      final OverflowPolicy overflowPolicy,
       final Consumer<ReceivedMqttMessage> mqttMessageConsumer,
       final Consumer<Disposable> disposableConsumer);
 
@@ -22,5 +45,8 @@ public interface MqttClient {
     String getTopic();
 
     MqttMessage getMessage();
+
+    /** Payload decoded as string, decoded once and shared by all listeners of the message. */
+    String getPayloadAsString();
   }
 }
@@ -0,0 +1,48 @@
+package ch.bergturbenthal.home.touch.domain.mqtt;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/** Handling of messages arriving faster than a listener's subscriber requests them. */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class OverflowPolicy {
+  private static final OverflowPolicy UNBOUNDED =
+      new OverflowPolicy(Strategy.BUFFER, Integer.MAX_VALUE);
+  private static final OverflowPolicy LATEST = new OverflowPolicy(Strategy.DROP_OLDEST, 1);
+  private Strategy strategy;
+  private int capacity;
+
+  /** Buffers every message, the behavior of {@link MqttClient#listenTopic(String)}. */
+  public static OverflowPolicy unbounded() {
+    return UNBOUNDED;
+  }
+
+  /** Keeps only the latest message, for listeners interested in the current value. */
+  public static OverflowPolicy latest() {
+    return LATEST;
+  }
+
+  /** Buffers up to {@code capacity} messages and drops the oldest one when full. */
+  public static OverflowPolicy dropOldest(final int capacity) {
+    return new OverflowPolicy(Strategy.DROP_OLDEST, checkCapacity(capacity));
+  }
+
+  /** Buffers up to {@code capacity} messages and terminates the subscription when full. */
+  public static OverflowPolicy error(final int capacity) {
+    return new OverflowPolicy(Strategy.ERROR, checkCapacity(capacity));
+  }
+
+  private static int checkCapacity(final int capacity) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("Capacity must be at least 1, but is " + capacity);
+    return capacity;
+  }
+
+  public enum Strategy {
+    BUFFER,
+    DROP_OLDEST,
+    ERROR
+  }
+}
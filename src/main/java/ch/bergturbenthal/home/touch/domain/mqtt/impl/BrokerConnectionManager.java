@@ -0,0 +1,232 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.ConnectionSettings;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a connection to every discovered broker. Connections are opened in parallel, a failed
+ * attempt or a lost connection is retried after a jittered exponential backoff. Brokers no longer
+ * discovered are dropped once they are disconnected, a connected broker is kept until its
+ * connection is lost, so a short gap in discovery does not interrupt anything.
+ */
+@Slf4j
+class BrokerConnectionManager {
+  /** Receives the events of all connections. */
+  interface Handler {
+    void connected(MqttAsyncClient client);
+
+    /** @param source index of the connection, unique among the connections of this manager */
+    void messageArrived(int source, String topic, MqttMessage message);
+  }
+
+  private final String clientId;
+  private final ConnectionSettings settings;
+  private final ScheduledExecutorService executorService;
+  private final Handler handler;
+  private final Map<InetSocketAddress, Connection> connections = new HashMap<>();
+  private final Map<InetSocketAddress, MqttAsyncClient> clients = new ConcurrentHashMap<>();
+  private final MeterRegistry meterRegistry;
+  private final Timer reconnectTimer;
+  private final Timer failoverTimer;
+  private final List<Meter> meters;
+  private int nextSource;
+  private int connectedCount;
+  private long disconnectedSince;
+  private boolean closed;
+
+  BrokerConnectionManager(
+      final String clientId,
+      final ConnectionSettings settings,
+      final ScheduledExecutorService executorService,
+      final MeterRegistry meterRegistry,
+      final Handler handler) {
+    this.clientId = clientId;
+    this.settings = settings;
+    this.executorService = executorService;
+    this.meterRegistry = meterRegistry;
+    this.handler = handler;
+    reconnectTimer = Timer.builder("touchmenu.mqtt.reconnect").register(meterRegistry);
+    failoverTimer = Timer.builder("touchmenu.mqtt.failover").register(meterRegistry);
+    meters =
+        Arrays.asList(
+            reconnectTimer,
+            failoverTimer,
+            Gauge.builder("touchmenu.mqtt.brokers.connected", this, m -> m.connectedCount)
+                .register(meterRegistry));
+  }
+
+  /** All brokers with a connection, connected or not. */
+  Map<InetSocketAddress, MqttAsyncClient> clients() {
+    return clients;
+  }
+
+  /** Connects to new brokers and drops the disconnected brokers not contained anymore. */
+  synchronized void update(final Collection<InetSocketAddress> brokers) {
+    if (closed) return;
+    for (InetSocketAddress address : brokers) {
+      if (connections.containsKey(address)) continue;
+      final MqttAsyncClient client;
+      try {
+        client =
+            new MqttAsyncClient(
+                "tcp://" + address.getHostString() + ":" + address.getPort(), clientId);
+      } catch (MqttException e) {
+        log.warn("Cannot create client for " + address, e);
+        continue;
+      }
+      final Connection connection = new Connection(address, client, nextSource++);
+      client.setCallback(connection);
+      connections.put(address, connection);
+      clients.put(address, client);
+      connect(connection);
+    }
+    for (Connection connection : connections.values().toArray(new Connection[0])) {
+      connection.discovered = brokers.contains(connection.address);
+      if (!connection.discovered && !connection.connected) remove(connection);
+    }
+  }
+
+  synchronized void close() {
+    closed = true;
+    for (Connection connection : connections.values().toArray(new Connection[0])) {
+      try {
+        if (connection.connected) connection.client.disconnectForcibly(0, 1000);
+      } catch (MqttException e) {
+        log.debug("Cannot disconnect from " + connection.address, e);
+      }
+      remove(connection);
+    }
+    meters.forEach(meterRegistry::remove);
+  }
+
+  private void connect(final Connection connection) {
+    final MqttConnectOptions options = new MqttConnectOptions();
+    options.setConnectionTimeout((int) Math.max(1, settings.getConnectTimeout().getSeconds()));
+    options.setKeepAliveInterval((int) Math.max(1, settings.getKeepAlive().getSeconds()));
+    try {
+      connection.client.connect(options, null, connection);
+    } catch (MqttException e) {
+      log.warn("Cannot connect to " + connection.address, e);
+      scheduleReconnect(connection);
+    }
+  }
+
+  private synchronized void scheduleReconnect(final Connection connection) {
+    if (closed || connections.get(connection.address) != connection) return;
+    if (connection.reconnect != null && !connection.reconnect.isDone()) return;
+    if (!connection.discovered) {
+      remove(connection);
+      return;
+    }
+    final long ceiling =
+        Math.min(
+            settings.getMaxBackoff().toNanos(),
+            settings.getInitialBackoff().toNanos() << Math.min(connection.attempts, 30));
+    connection.attempts++;
+    final long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    connection.reconnect =
+        executorService.schedule(() -> connect(connection), delay, TimeUnit.NANOSECONDS);
+  }
+
+  private void remove(final Connection connection) {
+    connections.remove(connection.address, connection);
+    clients.remove(connection.address, connection.client);
+    if (connection.reconnect != null) connection.reconnect.cancel(false);
+    try {
+      connection.client.close();
+    } catch (MqttException e) {
+      log.debug("Cannot close client of " + connection.address, e);
+    }
+  }
+
+  /** @return false if the state was known already, Paho may report a connect more than once */
+  private synchronized boolean connectionChanged(
+      final Connection connection, final boolean connected) {
+    if (connection.connected == connected) return false;
+    final long now = System.nanoTime();
+    if (connected) {
+      connection.attempts = 0;
+      if (connection.lostAt != 0) {
+        reconnectTimer.record(now - connection.lostAt, TimeUnit.NANOSECONDS);
+        connection.lostAt = 0;
+      }
+      if (connectedCount++ == 0 && disconnectedSince != 0) {
+        failoverTimer.record(now - disconnectedSince, TimeUnit.NANOSECONDS);
+        disconnectedSince = 0;
+      }
+    } else {
+      connection.lostAt = now;
+      if (--connectedCount == 0) disconnectedSince = now;
+    }
+    connection.connected = connected;
+    return true;
+  }
+
+  private class Connection implements MqttCallback, IMqttActionListener {
+    private final InetSocketAddress address;
+    private final MqttAsyncClient client;
+    private final int source;
+    private boolean discovered = true;
+    private boolean connected;
+    private int attempts;
+    private long lostAt;
+    private ScheduledFuture<?> reconnect;
+
+    Connection(final InetSocketAddress address, final MqttAsyncClient client, final int source) {
+      this.address = address;
+      this.client = client;
+      this.source = source;
+    }
+
+    @Override
+    public void onSuccess(final IMqttToken asyncActionToken) {
+      if (!connectionChanged(this, true)) return;
+      log.info("Connected to " + address);
+      handler.connected(client);
+    }
+
+    @Override
+    public void onFailure(final IMqttToken asyncActionToken, final Throwable exception) {
+      log.warn("Cannot connect to " + address, exception);
+      scheduleReconnect(this);
+    }
+
+    @Override
+    public void connectionLost(final Throwable throwable) {
+      log.warn("Connection to " + address + " lost", throwable);
+      if (connectionChanged(this, false)) scheduleReconnect(this);
+    }
+
+    @Override
+    public void messageArrived(final String topic, final MqttMessage message) {
+      handler.messageArrived(source, topic, message);
+    }
+
+    @Override
+    public void deliveryComplete(final IMqttDeliveryToken token) {}
+  }
+}
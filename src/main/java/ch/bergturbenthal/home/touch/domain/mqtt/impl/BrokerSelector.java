@@ -0,0 +1,70 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.PublishStrategy;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Chooses the brokers to publish a message to by the {@link PublishStrategy}. Only connected
+ * brokers are chosen, so a lost connection takes effect on the next message. Topics are spread by
+ * rendezvous hashing: every broker gets a weight from topic and broker address and the heaviest
+ * one wins, so a broker leaving only moves its own topics.
+ */
+class BrokerSelector {
+  private static final Comparator<InetSocketAddress> ADDRESS_ORDER =
+      Comparator.comparing(InetSocketAddress::getHostString)
+          .thenComparingInt(InetSocketAddress::getPort);
+  private final PublishStrategy strategy;
+
+  BrokerSelector(final PublishStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  <C> Collection<C> select(
+      final String topic,
+      final Map<InetSocketAddress, C> clients,
+      final Predicate<? super C> connected) {
+    if (strategy == PublishStrategy.ALL) {
+      final List<C> connectedClients = new ArrayList<>(clients.size());
+      for (C client : clients.values()) if (connected.test(client)) connectedClients.add(client);
+      return connectedClients;
+    }
+    final long topicHash = topic.hashCode() * 0x9e3779b97f4a7c15L;
+    InetSocketAddress selectedAddress = null;
+    C selected = null;
+    long selectedWeight = 0;
+    for (Map.Entry<InetSocketAddress, C> entry : clients.entrySet()) {
+      if (!connected.test(entry.getValue())) continue;
+      final InetSocketAddress address = entry.getKey();
+      if (strategy == PublishStrategy.PRIMARY_WITH_FAILOVER) {
+        if (selectedAddress == null || ADDRESS_ORDER.compare(address, selectedAddress) < 0) {
+          selectedAddress = address;
+          selected = entry.getValue();
+        }
+      } else {
+        final long weight = mix(topicHash ^ address.hashCode());
+        if (selected == null || weight > selectedWeight) {
+          selectedWeight = weight;
+          selected = entry.getValue();
+        }
+      }
+    }
+    return selected == null ? Collections.emptyList() : Collections.singletonList(selected);
+  }
+
+  private static long mix(long value) {
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+}
@@ -0,0 +1,96 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.util.MurmurHash64;
+
+import java.time.Duration;
+
+/**
+ * Detects the copies of a message received over more than one broker connection, as they arrive
+ * from bridged or clustered brokers. A message is keyed by a hash of topic and payload, a copy is
+ * a message with a known key from another connection within the window. The same message again on
+ * the same connection is a new message, not a copy.
+ *
+ * <p>Keys, arrival times and the connections having delivered a key are kept in parallel arrays
+ * of an open addressing table. Entries out of the window are reused for new keys, the table is
+ * rebuilt with the live entries only when half of it is used.
+ */
+class IngressDeduplicator {
+  private static final int MIN_CAPACITY = 256;
+  private final long window;
+  private long[] keys;
+  private long[] times;
+  private long[] sources;
+  private int used;
+
+  IngressDeduplicator(final Duration window) {
+    this.window = window.toNanos();
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * @param source index of the connection the message arrived on
+   * @return false if the message is a copy of one received on another connection
+   */
+  synchronized boolean accept(
+      final int source, final String topic, final byte[] payload, final long now) {
+    if (window <= 0) return true;
+    long key = MurmurHash64.hash(payload) ^ topic.hashCode() * 0x9e3779b97f4a7c15L;
+    if (key == 0) key = 1;
+    final long sourceBit = 1L << (source & 63);
+    final int mask = keys.length - 1;
+    int index = (int) (key ^ key >>> 32) & mask;
+    int reusable = -1;
+    while (keys[index] != 0) {
+      final boolean expired = now - times[index] >= window;
+      if (keys[index] == key) {
+        if (!expired && (sources[index] & sourceBit) == 0) {
+          sources[index] |= sourceBit;
+          return false;
+        }
+        times[index] = now;
+        sources[index] = sourceBit;
+        return true;
+      }
+      if (expired && reusable < 0) reusable = index;
+      index = (index + 1) & mask;
+    }
+    if (reusable >= 0) index = reusable;
+    else used++;
+    keys[index] = key;
+    times[index] = now;
+    sources[index] = sourceBit;
+    if (used > keys.length / 2) rebuild(now);
+    return true;
+  }
+
+  synchronized int size() {
+    return used;
+  }
+
+  private void rebuild(final long now) {
+    final long[] oldKeys = keys;
+    final long[] oldTimes = times;
+    final long[] oldSources = sources;
+    int live = 0;
+    for (int i = 0; i < oldKeys.length; i++)
+      if (oldKeys[i] != 0 && now - oldTimes[i] < window) live++;
+    allocate(live * 4 > oldKeys.length ? oldKeys.length * 2 : oldKeys.length);
+    final int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      final long key = oldKeys[i];
+      if (key == 0 || now - oldTimes[i] >= window) continue;
+      int index = (int) (key ^ key >>> 32) & mask;
+      while (keys[index] != 0) index = (index + 1) & mask;
+      keys[index] = key;
+      times[index] = oldTimes[i];
+      sources[index] = oldSources[i];
+    }
+    used = live;
+  }
+
+  private void allocate(final int capacity) {
+    keys = new long[capacity];
+    times = new long[capacity];
+    sources = new long[capacity];
+  }
+}
@@ -0,0 +1,79 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient.ReceivedMqttMessage;
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
+import io.micrometer.core.instrument.Counter;
+import reactor.core.Exceptions;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffer between the dispatching thread and one subscriber of a topic. Messages are passed on as
+ * far as the subscriber requested them, the rest waits in a queue bounded by the {@link
+ * OverflowPolicy}. The sink has to be created with {@link FluxSink.OverflowStrategy#IGNORE}.
+ */
+class ListenerQueue {
+  private final FluxSink<ReceivedMqttMessage> sink;
+  private final OverflowPolicy policy;
+  private final Counter droppedMessages;
+  private final ArrayDeque<ReceivedMqttMessage> queue = new ArrayDeque<>();
+  private final AtomicInteger wip = new AtomicInteger();
+  private boolean overflow;
+
+  ListenerQueue(
+      final FluxSink<ReceivedMqttMessage> sink,
+      final OverflowPolicy policy,
+      final Counter droppedMessages) {
+    this.sink = sink;
+    this.policy = policy;
+    this.droppedMessages = droppedMessages;
+    sink.onRequest(n -> drain());
+  }
+
+  void next(final ReceivedMqttMessage message) {
+    synchronized (queue) {
+      if (overflow) return;
+      if (queue.size() >= policy.getCapacity()) {
+        if (policy.getStrategy() == OverflowPolicy.Strategy.ERROR) {
+          overflow = true;
+          queue.clear();
+        } else queue.poll();
+        droppedMessages.increment();
+      }
+      if (!overflow) queue.add(message);
+    }
+    drain();
+  }
+
+  int depth() {
+    synchronized (queue) {
+      return queue.size();
+    }
+  }
+
+  private void drain() {
+    if (wip.getAndIncrement() != 0) return;
+    do {
+      while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+        final ReceivedMqttMessage message;
+        synchronized (queue) {
+          message = queue.poll();
+        }
+        if (message == null) break;
+        sink.next(message);
+      }
+      final boolean failed;
+      synchronized (queue) {
+        failed = overflow;
+      }
+      if (failed) {
+        sink.error(
+            Exceptions.failWithOverflow(
+                "Listener queue exceeded capacity of " + policy.getCapacity()));
+        return;
+      }
+    } while (wip.decrementAndGet() != 0);
+  }
+}
@@ -0,0 +1,54 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases memory mappings right away instead of when the garbage collector finds the buffer, so
+ * the file and its page cache are not held by a buffer that is no longer used. The buffer must not
+ * be accessed anymore after {@link #unmap(MappedByteBuffer)}.
+ */
+@Slf4j
+final class MappedBuffers {
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      // Java 9 and later
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafe = theUnsafe.get(null);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private MappedBuffers() {}
+
+  static void unmap(final MappedByteBuffer buffer) {
+    try {
+      if (INVOKE_CLEANER != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        return;
+      }
+      // Java 8: DirectByteBuffer.cleaner().clean()
+      final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      final Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      log.debug("Cannot unmap buffer, leaving it to the garbage collector", ex);
+    }
+  }
+}
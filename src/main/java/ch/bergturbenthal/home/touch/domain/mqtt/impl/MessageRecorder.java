@@ -0,0 +1,97 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends inbound messages to a file in the {@link MessageRecording} format. The file is written
+ * through memory-mapped regions which are extended as needed, so recording a message costs a copy
+ * into memory. No region reaches beyond the maximum size, so the file never grows past it, and a
+ * region is unmapped as soon as it is replaced. Closing truncates the file to the recorded content.
+ */
+@Slf4j
+class MessageRecorder implements Closeable {
+  private static final int REGION_SIZE = 8 * 1024 * 1024;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final long maxBytes;
+  private final long start = System.nanoTime();
+  private MappedByteBuffer region;
+  private long regionStart;
+  private boolean full;
+
+  MessageRecorder(final Path file, final long maxBytes) throws IOException {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    region =
+        channel.map(
+            FileChannel.MapMode.READ_WRITE,
+            0,
+            Math.max(MessageRecording.HEADER_SIZE, Math.min(REGION_SIZE, maxBytes)));
+    region
+        .putInt(MessageRecording.MAGIC)
+        .putInt(MessageRecording.VERSION)
+        .putLong(System.currentTimeMillis());
+  }
+
+  synchronized void record(final String topic, final MqttMessage message) {
+    if (full || region == null) return;
+    final long nanos = System.nanoTime() - start;
+    final byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+    final byte[] payload = message.getPayload();
+    final int size = MessageRecording.RECORD_OVERHEAD + topicBytes.length + payload.length;
+    try {
+      if (region.remaining() < size) {
+        final long position = regionStart + region.position();
+        if (position + size > maxBytes) {
+          full = true;
+          log.warn("Recording " + file + " reached its maximum size");
+          return;
+        }
+        final MappedByteBuffer next =
+            channel.map(
+                FileChannel.MapMode.READ_WRITE,
+                position,
+                Math.min(Math.max(REGION_SIZE, size), maxBytes - position));
+        MappedBuffers.unmap(region);
+        regionStart = position;
+        region = next;
+      }
+    } catch (IOException e) {
+      full = true;
+      log.warn("Cannot extend recording " + file, e);
+      return;
+    }
+    region.putLong(nanos).putInt(topicBytes.length).put(topicBytes);
+    region.put(
+        (byte) (message.getQos() | (message.isRetained() ? MessageRecording.RETAINED_FLAG : 0)));
+    region.putInt(payload.length).put(payload);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (region == null) return;
+    final long size = regionStart + region.position();
+    region.force();
+    MappedBuffers.unmap(region);
+    region = null;
+    channel.truncate(size);
+    channel.close();
+  }
+}
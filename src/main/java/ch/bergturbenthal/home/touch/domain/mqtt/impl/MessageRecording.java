@@ -0,0 +1,78 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import lombok.Value;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * Format of the inbound message recordings written by {@link MessageRecorder}. A recording starts
+ * with a header of magic, version and the wall clock time of the start in milliseconds. Every
+ * message follows as nanoseconds since the start, topic, flags of QoS and retained and payload.
+ * The file may end with zeros if the recording was not closed.
+ */
+public final class MessageRecording {
+  static final int MAGIC = 0x544d5243;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  /** Timestamp, topic length, flags and payload length. */
+  static final int RECORD_OVERHEAD = 8 + 4 + 1 + 4;
+  static final int RETAINED_FLAG = 4;
+
+  private MessageRecording() {}
+
+  /**
+   * Reads all messages of a recording in order.
+   *
+   * @return wall clock time of the recording start in milliseconds
+   */
+  public static long read(final Path file, final Consumer<RecordedMessage> consumer)
+      throws IOException {
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION)
+        throw new IOException("Unknown recording format of " + file);
+      final long start = input.readLong();
+      while (true) {
+        final long nanos;
+        final int topicLength;
+        try {
+          nanos = input.readLong();
+          topicLength = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (topicLength <= 0) break;
+        final byte[] topic = new byte[topicLength];
+        input.readFully(topic);
+        final int flags = input.readUnsignedByte();
+        final byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        consumer.accept(
+            new RecordedMessage(
+                nanos,
+                new String(topic, StandardCharsets.UTF_8),
+                payload,
+                flags & 3,
+                (flags & RETAINED_FLAG) != 0));
+      }
+      return start;
+    }
+  }
+
+  @Value
+  public static class RecordedMessage {
+    /** Time since the start of the recording. */
+    private long nanos;
+    private String topic;
+    private byte[] payload;
+    private int qos;
+    private boolean retained;
+  }
+}
@@ -0,0 +1,41 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.MessageTraceSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Logs a sample of the messages on the configured topic filters with their payload cut to a
+ * maximum length. Costs a single check per message while no filter is configured.
+ */
+@Slf4j
+class MessageTracer {
+  private final TopicTrie<Boolean> topics = new TopicTrie<>();
+  private final boolean enabled;
+  private final double sampleRate;
+  private final int maxPayloadLength;
+
+  MessageTracer(final MessageTraceSettings settings) {
+    settings.getTopics().forEach(filter -> topics.put(filter, Boolean.TRUE));
+    enabled = !settings.getTopics().isEmpty();
+    sampleRate = settings.getSampleRate();
+    maxPayloadLength = settings.getMaxPayloadLength();
+  }
+
+  void trace(final String direction, final String topic, final MqttMessage message) {
+    if (!enabled || !log.isInfoEnabled() || !topics.hasMatch(topic)) return;
+    if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+    final byte[] payload = message.getPayload();
+    if (payload.length <= maxPayloadLength)
+      log.info("{} {}: {}", direction, topic, new String(payload));
+    else
+      log.info(
+          "{} {}: {}... ({} bytes)",
+          direction,
+          topic,
+          new String(payload, 0, maxPayloadLength),
+          payload.length);
+  }
+}
@@ -1,15 +1,27 @@
 package ch.bergturbenthal.home.touch.domain.mqtt.impl;
 
 import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
 import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
-import ch.bergturbenthal.home.touch.domain.settings.MqttEndpoint;
+import ch.bergturbenthal.home.touch.domain.settings.RecordingSettings;
+import ch.bergturbenthal.home.touch.domain.settings.RetainedStoreSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.paho.client.mqttv3.*;
 import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import reactor.core.Disposable;
@@ -17,37 +29,170 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 @RefreshScope
 public class PahoMqttClient implements MqttClient {
-  private static final Pattern SPLIT_PATTERN = Pattern.compile(Pattern.quote("/"));
   private final MenuProperties properties;
   private final Map<String, RegisteredListeners> registeredSinks = new ConcurrentHashMap<>();
-  private final Map<InetSocketAddress, MqttAsyncClient> runningClients = new ConcurrentHashMap<>();
-  private final Map<String, MqttMessage> retainedMessages = new ConcurrentHashMap<>();
+  private final TopicTrie<RegisteredListeners> topicRouter = new TopicTrie<>();
+  private final RetainedMessageStore retainedMessages;
+  private final MeterRegistry meterRegistry;
+  private final List<Meter> meters;
+  private final RetainedSnapshot retainedSnapshot;
+  private final RetainedReplayer retainedReplayer;
+  private final ScheduledFuture<?> snapshotSchedule;
+  private final MessageTracer tracer;
+  private final PublishCoalescer publishCoalescer;
+  private final BrokerSelector brokerSelector;
+  private final StripedDispatcher dispatcher;
+  private final SubscriptionBatcher subscriptions;
+  private final MessageRecorder recorder;
+  private final IngressDeduplicator deduplicator;
+  private final Counter duplicateMessages;
+  private final Scheduler listenerScheduler = Schedulers.newElastic("mqtt-listener", 60, true);
+  private final BrokerConnectionManager connections;
   private DiscoveryClient discoveryClient;
 
-  public PahoMqttClient(final MenuProperties properties, DiscoveryClient discoveryClient)
+  public PahoMqttClient(
+      final MenuProperties properties,
+      DiscoveryClient discoveryClient,
+      final ScheduledExecutorService executorService,
+      final MeterRegistry meterRegistry)
       throws MqttException {
     this.properties = properties;
     this.discoveryClient = discoveryClient;
+    this.meterRegistry = meterRegistry;
+    retainedMessages = new RetainedMessageStore(properties.getMqtt().getRetained());
+    deduplicator = new IngressDeduplicator(properties.getMqtt().getDedupWindow());
+    duplicateMessages =
+        Counter.builder("touchmenu.mqtt.ingress.duplicates").register(meterRegistry);
+    meters =
+        Arrays.asList(
+            Gauge.builder("touchmenu.mqtt.retained.entries", retainedMessages::size)
+                .register(meterRegistry),
+            Gauge.builder("touchmenu.mqtt.retained.bytes", retainedMessages::bytes)
+                .baseUnit("bytes")
+                .register(meterRegistry),
+            FunctionCounter.builder(
+                    "touchmenu.mqtt.retained.evictions",
+                    retainedMessages,
+                    RetainedMessageStore::evictions)
+                .register(meterRegistry),
+            duplicateMessages);
+    final RetainedStoreSettings retainedSettings = properties.getMqtt().getRetained();
+    if (retainedSettings.getSnapshotFile() != null) {
+      retainedSnapshot = new RetainedSnapshot(Paths.get(retainedSettings.getSnapshotFile()));
+      try {
+        final int restored = retainedSnapshot.load(retainedMessages);
+        log.info("Restored " + restored + " retained messages");
+      } catch (IOException ex) {
+        log.warn("Cannot load retained snapshot " + retainedSettings.getSnapshotFile(), ex);
+      }
+      final long interval = retainedSettings.getSnapshotInterval().toMillis();
+      snapshotSchedule =
+          executorService.scheduleWithFixedDelay(
+              this::writeSnapshot, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      retainedSnapshot = null;
+      snapshotSchedule = null;
+    }
+    retainedReplayer =
+        new RetainedReplayer(
+            retainedSettings.getReplay(), retainedMessages, executorService, meterRegistry);
+    tracer = new MessageTracer(properties.getMqtt().getTrace());
+    brokerSelector = new BrokerSelector(properties.getMqtt().getPublishStrategy());
+    publishCoalescer =
+        new PublishCoalescer(
+            properties.getMqtt().getPublishPolicies(), executorService, this::sendToBrokers);
+    dispatcher = new StripedDispatcher(properties.getMqtt().getDispatch(), meterRegistry);
+    connections =
+        new BrokerConnectionManager(
+            properties.getMqtt().getClientId(),
+            properties.getMqtt().getConnection(),
+            executorService,
+            meterRegistry,
+            new BrokerConnectionManager.Handler() {
+              @Override
+              public void connected(final MqttAsyncClient client) {
+                brokerConnected(client);
+              }
+
+              @Override
+              public void messageArrived(
+                  final int source, final String topic, final MqttMessage message) {
+                received(source, topic, message);
+              }
+            });
+    subscriptions =
+        new SubscriptionBatcher(
+            properties.getMqtt().getSubscriptions(),
+            executorService,
+            () -> connections.clients().values());
+    final RecordingSettings recording = properties.getMqtt().getRecording();
+    if (recording.getFile() != null) {
+      MessageRecorder createdRecorder = null;
+      try {
+        createdRecorder =
+            new MessageRecorder(
+                Paths.get(recording.getFile()), recording.getMaxSize().toBytes());
+      } catch (IOException ex) {
+        log.warn("Cannot record to " + recording.getFile(), ex);
+      }
+      recorder = createdRecorder;
+    } else recorder = null;
 
     discover();
   }
 
+  @PreDestroy
+  public void close() {
+    meters.forEach(meterRegistry::remove);
+    connections.close();
+    retainedReplayer.close();
+    listenerScheduler.dispose();
+    dispatcher.shutdown();
+    subscriptions.shutdown();
+    if (recorder != null)
+      try {
+        recorder.close();
+      } catch (IOException ex) {
+        log.warn("Cannot close recording", ex);
+      }
+    if (snapshotSchedule != null) {
+      snapshotSchedule.cancel(false);
+      // waits for a scheduled write still running, the snapshot serializes its writes
+      writeSnapshot();
+    }
+  }
+
+  private void writeSnapshot() {
+    try {
+      retainedSnapshot.write(retainedMessages);
+    } catch (IOException | RuntimeException ex) {
+      log.warn("Cannot write retained snapshot", ex);
+    }
+  }
+
   @Override
   public void send(final String topic, final MqttMessage message) {
     publish(topic, message)
@@ -61,94 +206,67 @@ public class PahoMqttClient implements MqttClient {
             });
   }
 
+  /** Polls as a fallback, changes of the broker endpoints are handled as they are announced. */
   @Scheduled(fixedDelay = 60 * 1000, initialDelay = 10 * 1000)
-  public void discover() throws MqttException {
-    // log.info("Discover");
-    final MqttEndpoint mqtt = properties.getMqtt();
-    final String service = mqtt.getService();
-    final List<ServiceInstance> discoveryClientInstances = discoveryClient.getInstances(service);
-    for (ServiceInstance serviceInstance : discoveryClientInstances) {
-      final String hostAddress = serviceInstance.getHost();
-      final int port = serviceInstance.getPort();
-      final InetSocketAddress inetSocketAddress = new InetSocketAddress(hostAddress, port);
-      // skip already running clients
-      if (runningClients.containsKey(inetSocketAddress)) continue;
-      String brokerAddress = "tcp://" + hostAddress + ":" + port;
-      final MqttAsyncClient client = new MqttAsyncClient(brokerAddress, mqtt.getClientId());
-      client.setCallback(
-          new MqttCallback() {
-            @Override
-            public void connectionLost(final Throwable throwable) {
-              log.warn("Connection to " + hostAddress + " lost", throwable);
-              runningClients.remove(inetSocketAddress, client);
-            }
+  public void discover() {
+    final String service = properties.getMqtt().getService();
+    final List<InetSocketAddress> brokers = new ArrayList<>();
+    for (ServiceInstance instance : discoveryClient.getInstances(service))
+      brokers.add(new InetSocketAddress(instance.getHost(), instance.getPort()));
+    connections.update(brokers);
+  }
 
-            @Override
-            public void messageArrived(final String s, final MqttMessage mqttMessage) {
-              if (mqttMessage.isRetained()) retainedMessages.put(s, mqttMessage);
-              if (log.isInfoEnabled()) {
-                log.info(" -> " + s + ": " + new String(mqttMessage.getPayload()));
-              }
-              final ReceivedMqttMessage msg = new ImmutableReceivedMqttMessage(s, mqttMessage);
-              registeredSinks.values().stream()
-                  .filter(listener -> listener.getMatchingTopic().matcher(s).matches())
-                  .flatMap(l -> l.getListeners().stream())
-                  .collect(Collectors.toList())
-                  .forEach(sink -> sink.next(msg));
-              // log.info("-------------------------------------------------------");
-            }
+  @EventListener(HeartbeatEvent.class)
+  public void discoveryChanged() {
+    discover();
+  }
 
-            @Override
-            public void deliveryComplete(final IMqttDeliveryToken iMqttDeliveryToken) {}
-          });
-      client.connect(
-          null,
-          new IMqttActionListener() {
-            @Override
-            public void onSuccess(final IMqttToken asyncActionToken) {
-              // log.info("Connected: " + client.isConnected());
-              for (Map.Entry<String, MqttMessage> entry : retainedMessages.entrySet()) {
-                try {
-                  // log.info("Deliver retained message on topic " + entry.getKey());
-                  client.publish(entry.getKey(), entry.getValue());
-                } catch (MqttException e) {
-                  log.warn("Cannot deliver retained message to " + hostAddress);
-                }
-              }
-              final String[] topics = registeredSinks.keySet().toArray(new String[0]);
-              subscribeTopics(topics, client);
-            }
+  /**
+   * Subscribes after the replay, so the replayed messages do not come back to us and new listeners
+   * never get the stale retained messages of the broker. Subscription batches send no SUBSCRIBE to
+   * the broker until then.
+   */
+  private void brokerConnected(final MqttAsyncClient client) {
+    subscriptions.hold(client);
+    retainedReplayer.replay(client, () -> subscriptions.subscribeActive(client));
+  }
 
-            @Override
-            public void onFailure(final IMqttToken asyncActionToken, final Throwable exception) {
-              runningClients.remove(inetSocketAddress, client);
-              log.warn("Cannot connect to " + hostAddress, exception);
-            }
-          });
-      runningClients.put(inetSocketAddress, client);
+  private void received(final int source, final String topic, final MqttMessage message) {
+    if (!deduplicator.accept(source, topic, message.getPayload(), System.nanoTime())) {
+      duplicateMessages.increment();
+      return;
     }
+    if (recorder != null) recorder.record(topic, message);
+    dispatcher.dispatch(topic, () -> dispatch(topic, message));
   }
 
-  private void subscribeTopics(final String[] topics, final MqttAsyncClient client) {
-    final int[] qos = new int[topics.length];
-    Arrays.fill(qos, 1);
-    try {
-      client.subscribe(topics, qos);
-    } catch (MqttException e) {
-      log.warn("Cannot subscribe to topics " + Arrays.toString(topics), e);
-    }
+  void dispatch(final String topic, final MqttMessage mqttMessage) {
+    if (mqttMessage.isRetained()) retainedMessages.put(topic, mqttMessage);
+    tracer.trace("->", topic, mqttMessage);
+    final ReceivedMqttMessage msg = new ImmutableReceivedMqttMessage(topic, mqttMessage);
+    topicRouter.forEachMatch(
+        topic,
+        listeners -> {
+          for (ListenerQueue listener : listeners.listeners) listener.next(msg);
+        });
+    // log.info("-------------------------------------------------------");
   }
 
   @Override
   public Flux<MqttWireMessage> publish(String topic, MqttMessage message) {
-    if (log.isInfoEnabled()) {
-      // log.info(" <- " + topic + ": " + new String(message.getPayload()));
-    }
-    if (message.isRetained()) {
-      retainedMessages.put(topic, message);
+    // the store keeps the message as it is sent, the message of the caller stays untouched
+    final MqttMessage effective = publishCoalescer.applyPolicy(topic, message);
+    final Flux<MqttWireMessage> result = publishCoalescer.publish(topic, effective);
+    tracer.trace("<-", topic, effective);
+    if (effective.isRetained()) {
+      retainedMessages.putPublished(topic, effective);
     } else retainedMessages.remove(topic);
+    return result;
+  }
 
-    return Flux.fromStream(runningClients.values().stream())
+  private Flux<MqttWireMessage> sendToBrokers(final String topic, final MqttMessage message) {
+    return Flux.fromIterable(
+            brokerSelector.select(topic, connections.clients(), MqttAsyncClient::isConnected))
         .flatMap(
             client ->
                 Mono.create(
@@ -178,103 +296,124 @@ public class PahoMqttClient implements MqttClient {
   }
 
   @Override
-  public Flux<ReceivedMqttMessage> listenTopic(String topic) {
-    final Pattern topicPattern = parseTopic(topic);
+  public Flux<ReceivedMqttMessage> listenTopic(
+      final String topic, final OverflowPolicy overflowPolicy) {
     final Flux<ReceivedMqttMessage> retainedStream =
-        Flux.fromStream(
-            retainedMessages.entrySet().stream()
-                .filter(e -> topicPattern.matcher(e.getKey()).matches())
-                .map(e -> new ImmutableReceivedMqttMessage(e.getKey(), e.getValue())));
-    final Flux<ReceivedMqttMessage> liveStream =
-        Flux.create(
-            (FluxSink<ReceivedMqttMessage> sink) -> {
-              sink.onDispose(
-                  () -> {
-                    synchronized (registeredSinks) {
-                      final RegisteredListeners existingSubscriptions = registeredSinks.get(topic);
-                      if (existingSubscriptions != null)
-                        existingSubscriptions.getListeners().remove(sink);
-                      if (existingSubscriptions == null
-                          || existingSubscriptions.getListeners().isEmpty()) {
-                        registeredSinks.remove(topic);
-                        runningClients
-                            .values()
-                            .forEach(
-                                client -> {
-                                  try {
-                                    client.unsubscribe(topic);
-                                  } catch (MqttException e) {
-                                    log.error("Cannot unsubscribe from " + topic, e);
-                                  }
-                                });
-                      }
-                    }
+        Flux.defer(
+            () -> {
+              final List<ReceivedMqttMessage> matching = new ArrayList<>();
+              retainedMessages.forEach(
+                  (retainedTopic, message) -> {
+                    if (TopicTrie.matches(topic, retainedTopic))
+                      matching.add(new ImmutableReceivedMqttMessage(retainedTopic, message));
                   });
-              synchronized (registeredSinks) {
-                final RegisteredListeners existingSubscriptions = registeredSinks.get(topic);
-                if (existingSubscriptions != null) {
-                  existingSubscriptions.getListeners().add(sink);
-                } else {
-                  final Collection<FluxSink<ReceivedMqttMessage>> newSubscriptions =
-                      new ConcurrentLinkedDeque<>();
-
-                  final RegisteredListeners newListeners =
-                      new RegisteredListeners(topicPattern, newSubscriptions);
-                  registeredSinks.put(topic, newListeners);
-                  newSubscriptions.add(sink);
-                  runningClients
-                      .values()
-                      .forEach(
-                          client -> {
-                            try {
-                              if (client.isConnected()) client.subscribe(topic, 1);
-                            } catch (MqttException e) {
-                              log.error("Cannot subscribe to " + topic, e);
-                            }
-                          });
-                }
-              }
+              return Flux.fromIterable(matching);
             });
+    final Flux<ReceivedMqttMessage> liveStream =
+        Flux.create(
+            (FluxSink<ReceivedMqttMessage> sink) -> addListener(topic, sink, overflowPolicy),
+            FluxSink.OverflowStrategy.IGNORE);
     return Flux.concat(retainedStream, liveStream);
   }
 
-  private Pattern parseTopic(final String topic) {
-    return Pattern.compile(
-        SPLIT_PATTERN
-            .splitAsStream(topic)
-            .map(
-                p -> {
-                  if (p.equals("#")) return ".*";
-                  else if (p.equals("+")) return "[^/]*";
-                  else return Pattern.quote(p);
-                })
-            .collect(Collectors.joining("/")));
+  /**
+   * The map only hands out the entry of a filter, registering and unregistering the filter runs
+   * under the monitor of that entry. So registrations of different filters do not wait for each
+   * other, and a retired entry is only replaced after its unregistration completed. No broker is
+   * called here: the {@link SubscriptionBatcher} only queues the topic and sends the SUBSCRIBE
+   * from its own flush.
+   */
+  private void addListener(
+      final String topic,
+      final FluxSink<ReceivedMqttMessage> sink,
+      final OverflowPolicy overflowPolicy) {
+    while (true) {
+      final RegisteredListeners registered =
+          registeredSinks.computeIfAbsent(topic, key -> new RegisteredListeners());
+      synchronized (registered) {
+        // unregistered meanwhile and removed from the map already
+        if (registered.retired) continue;
+        if (registered.listeners.isEmpty()) registerFilter(topic, registered);
+        final ListenerQueue listener =
+            new ListenerQueue(sink, overflowPolicy, registered.droppedMessages);
+        registered.listeners.add(listener);
+        sink.onDispose(() -> removeListener(topic, registered, listener));
+        return;
+      }
+    }
+  }
+
+  private void removeListener(
+      final String topic, final RegisteredListeners registered, final ListenerQueue listener) {
+    synchronized (registered) {
+      if (!registered.listeners.remove(listener) || !registered.listeners.isEmpty()) return;
+      unregisterFilter(topic, registered);
+      registered.retired = true;
+      registeredSinks.remove(topic, registered);
+    }
+  }
+
+  /** Called with the first listener of a topic filter. */
+  private void registerFilter(final String topic, final RegisteredListeners registered) {
+    registered.droppedMessages =
+        Counter.builder("touchmenu.mqtt.listener.dropped")
+            .tag("topic", topic)
+            .register(meterRegistry);
+    registered.queueDepth =
+        Gauge.builder(
+                "touchmenu.mqtt.listener.queue",
+                registered.listeners,
+                l -> l.stream().mapToInt(ListenerQueue::depth).sum())
+            .tag("topic", topic)
+            .register(meterRegistry);
+    topicRouter.put(topic, registered);
+    subscriptions.subscribe(topic);
+  }
+
+  /** Called when the last listener of a topic filter leaves. */
+  private void unregisterFilter(final String topic, final RegisteredListeners registered) {
+    topicRouter.remove(topic);
+    meterRegistry.remove(registered.droppedMessages);
+    meterRegistry.remove(registered.queueDepth);
+    subscriptions.unsubscribe(topic);
   }
 
   @Override
   public void registerTopic(
       final String topic,
+      final OverflowPolicy overflowPolicy,
       final Consumer<ReceivedMqttMessage> mqttMessageConsumer,
       final Consumer<Disposable> disposableConsumer) {
+    Flux<ReceivedMqttMessage> messages = listenTopic(topic, overflowPolicy);
+    // a bounded policy needs a consumer requesting one message at a time, on its own thread,
+    // otherwise every message is handed over on the dispatching thread and nothing is ever queued
+    if (overflowPolicy.getCapacity() != Integer.MAX_VALUE)
+      messages = messages.publishOn(listenerScheduler, 1);
     disposableConsumer.accept(
-        listenTopic(topic)
-            .subscribe(
-                mqttMessageConsumer,
-                ex -> {
-                  log.warn("Error processing " + topic, ex);
-                  registerTopic(topic, mqttMessageConsumer, disposableConsumer);
-                }));
+        messages.subscribe(
+            mqttMessageConsumer,
+            ex -> {
+              log.warn("Error processing " + topic, ex);
+              registerTopic(topic, overflowPolicy, mqttMessageConsumer, disposableConsumer);
+            }));
   }
 
-  @Value
+  /** Listeners of one topic filter, the other fields are guarded by its monitor. */
   private static final class RegisteredListeners {
-    private Pattern matchingTopic;
-    private Collection<FluxSink<ReceivedMqttMessage>> listeners;
+    private final Collection<ListenerQueue> listeners = new ConcurrentLinkedDeque<>();
+    private Counter droppedMessages;
+    private Gauge queueDepth;
+    private boolean retired;
   }
 
   @Value
   private static final class ImmutableReceivedMqttMessage implements ReceivedMqttMessage {
     private String topic;
     private MqttMessage message;
+
+    @Getter(lazy = true)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final String payloadAsString = new String(message.getPayload());
   }
 }
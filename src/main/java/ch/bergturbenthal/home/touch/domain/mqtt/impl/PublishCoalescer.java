@@ -0,0 +1,183 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.PublishPolicy;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Outbound stage keeping at most one pending message per topic. A message published while its
+ * topic has {@link PublishPolicy#getMaxInFlight()} messages unacknowledged, or within the
+ * coalescing window after the last one, waits and is replaced by any newer message to the same
+ * topic. Subscribers of a replaced message receive the responses of the message sent in its place.
+ * The state of a topic is dropped once it is idle and its window is over, so only busy topics are
+ * kept.
+ */
+class PublishCoalescer {
+  private static final PublishPolicy DEFAULT_POLICY = new PublishPolicy();
+  private final List<PublishPolicy> policies;
+  private final ScheduledExecutorService executorService;
+  private final BiFunction<String, MqttMessage, Flux<MqttWireMessage>> sender;
+  private final Map<String, TopicState> topicStates = new ConcurrentHashMap<>();
+
+  PublishCoalescer(
+      final List<PublishPolicy> policies,
+      final ScheduledExecutorService executorService,
+      final BiFunction<String, MqttMessage, Flux<MqttWireMessage>> sender) {
+    for (PublishPolicy policy : policies)
+      if (policy.getMaxInFlight() < 1)
+        throw new IllegalArgumentException(
+            "Max in flight of " + policy.getTopic() + " must be at least 1");
+    this.policies = policies;
+    this.executorService = executorService;
+    this.sender = sender;
+  }
+
+  /**
+   * The message as it is sent to {@code topic}: a copy with the QoS and retained overrides of the
+   * topic, or {@code message} itself if it conforms already. {@code message} is never modified, it
+   * may be shared with other paths.
+   */
+  MqttMessage applyPolicy(final String topic, final MqttMessage message) {
+    final PublishPolicy policy = findPolicy(topic);
+    final boolean qosDiffers = policy.getQos() != null && policy.getQos() != message.getQos();
+    final boolean retainedDiffers =
+        policy.getRetained() != null && policy.getRetained() != message.isRetained();
+    if (!qosDiffers && !retainedDiffers) return message;
+    final MqttMessage copy = new MqttMessage(message.getPayload());
+    copy.setQos(qosDiffers ? policy.getQos() : message.getQos());
+    copy.setRetained(retainedDiffers ? policy.getRetained() : message.isRetained());
+    return copy;
+  }
+
+  /** Sends {@link #applyPolicy} of {@code message} on subscription. */
+  Flux<MqttWireMessage> publish(final String topic, final MqttMessage message) {
+    final MqttMessage effective = applyPolicy(topic, message);
+    if (!findPolicy(topic).isCoalesce()) return sender.apply(topic, effective);
+    return Flux.create(
+        sink -> {
+          // a state retired meanwhile is replaced by a new one
+          while (!topicStates.computeIfAbsent(topic, TopicState::new).offer(effective, sink)) {}
+        });
+  }
+
+  int topicCount() {
+    return topicStates.size();
+  }
+
+  private PublishPolicy findPolicy(final String topic) {
+    final TopicState topicState = topicStates.get(topic);
+    return topicState != null ? topicState.policy : matchPolicy(topic);
+  }
+
+  private PublishPolicy matchPolicy(final String topic) {
+    for (PublishPolicy policy : policies)
+      if (TopicTrie.matches(policy.getTopic(), topic)) return policy;
+    return DEFAULT_POLICY;
+  }
+
+  private class TopicState {
+    private final String topic;
+    private final PublishPolicy policy;
+    private final long windowNanos;
+    private long lastSent;
+    private int inFlight;
+    private MqttMessage pending;
+    private List<FluxSink<MqttWireMessage>> pendingSinks = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean retired;
+
+    TopicState(final String topic) {
+      this.topic = topic;
+      policy = matchPolicy(topic);
+      windowNanos = policy.getCoalesceWindow().toNanos();
+      lastSent = System.nanoTime() - windowNanos;
+    }
+
+    /** @return false if this state is retired and the message has to go to a new one */
+    boolean offer(final MqttMessage message, final FluxSink<MqttWireMessage> sink) {
+      synchronized (this) {
+        if (retired) return false;
+        pending = message;
+        pendingSinks.add(sink);
+      }
+      sink.onCancel(() -> cancel(sink));
+      drain();
+      return true;
+    }
+
+    private void cancel(final FluxSink<MqttWireMessage> sink) {
+      synchronized (this) {
+        // sinks of a message sent already are not pending anymore
+        if (!pendingSinks.remove(sink) || !pendingSinks.isEmpty()) return;
+        pending = null;
+      }
+      drain();
+    }
+
+    private void drain() {
+      final MqttMessage message;
+      final List<FluxSink<MqttWireMessage>> sinks;
+      synchronized (this) {
+        if (inFlight >= policy.getMaxInFlight() || flushScheduled) return;
+        final long now = System.nanoTime();
+        final long delay = lastSent + windowNanos - now;
+        if (pending == null) {
+          // idle: drop the state once the window is over, a new one would not respect it
+          if (inFlight > 0) return;
+          if (delay > 0) scheduleFlush(delay);
+          else {
+            retired = true;
+            topicStates.remove(topic, this);
+          }
+          return;
+        }
+        if (delay > 0) {
+          scheduleFlush(delay);
+          return;
+        }
+        message = pending;
+        sinks = pendingSinks;
+        pending = null;
+        pendingSinks = new ArrayList<>(1);
+        inFlight++;
+        lastSent = now;
+      }
+      sender
+          .apply(topic, message)
+          .doFinally(signal -> release())
+          .subscribe(
+              response -> sinks.forEach(sink -> sink.next(response)),
+              ex -> sinks.forEach(sink -> sink.error(ex)),
+              () -> sinks.forEach(FluxSink::complete));
+    }
+
+    private void scheduleFlush(final long delay) {
+      flushScheduled = true;
+      executorService.schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void flush() {
+      synchronized (this) {
+        flushScheduled = false;
+      }
+      drain();
+    }
+
+    private void release() {
+      synchronized (this) {
+        inFlight--;
+      }
+      drain();
+    }
+  }
+}
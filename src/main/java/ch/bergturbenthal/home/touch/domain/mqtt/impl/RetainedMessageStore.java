@@ -0,0 +1,226 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.RetainedQuota;
+import ch.bergturbenthal.home.touch.domain.settings.RetainedStoreSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Last retained message per topic within a byte budget. Topics are grouped by the prefix of their
+ * quota, every group and the store as a whole evict their least recently updated messages when
+ * over budget. A message counts with its payload and topic. Payloads may be kept off-heap.
+ *
+ * <p>Messages published by this instance are marked, only those are republished to a broker after
+ * a (re)connect. A received copy of a marked message keeps the mark, as it is the echo of our own
+ * publication.
+ */
+@Slf4j
+class RetainedMessageStore {
+  private final long maxBytes;
+  private final boolean offHeap;
+  private final List<Partition> partitions = new ArrayList<>();
+  private long bytes;
+  private int size;
+  private long sequence;
+  private long evictions;
+  private long modifications;
+
+  RetainedMessageStore(final RetainedStoreSettings settings) {
+    maxBytes = settings.getMaxSize().toBytes();
+    offHeap = settings.isOffHeap();
+    for (RetainedQuota quota : settings.getQuotas())
+      partitions.add(new Partition(quota.getPrefix(), quota.getMaxSize().toBytes()));
+    partitions.add(new Partition("", Long.MAX_VALUE));
+  }
+
+  /** Stores a message received from a broker. */
+  synchronized void put(final String topic, final MqttMessage message) {
+    final Entry existing = findPartition(topic).entries.get(topic);
+    put(topic, message, existing != null && existing.isPublished(message));
+  }
+
+  /** Stores a message published by this instance. */
+  synchronized void putPublished(final String topic, final MqttMessage message) {
+    put(topic, message, true);
+  }
+
+  /**
+   * Stores a message loaded from a snapshot. Restored messages are served to listeners but not
+   * republished to brokers, they may be older than what the brokers retain.
+   */
+  synchronized void restore(final String topic, final MqttMessage message) {
+    put(topic, message, false);
+  }
+
+  private void put(final String topic, final MqttMessage message, final boolean published) {
+    modifications++;
+    final Partition partition = findPartition(topic);
+    remove(partition, topic);
+    final int entrySize = message.getPayload().length + topic.length();
+    if (entrySize > maxBytes || entrySize > partition.maxBytes) {
+      log.debug("Retained message on " + topic + " exceeds budget, " + entrySize + " bytes");
+      return;
+    }
+    partition.entries.put(topic, new Entry(message, entrySize, ++sequence, offHeap, published));
+    partition.bytes += entrySize;
+    bytes += entrySize;
+    size++;
+    while (partition.bytes > partition.maxBytes) evictEldest(partition);
+    while (bytes > maxBytes) evictEldest(findEldestPartition());
+  }
+
+  synchronized void remove(final String topic) {
+    modifications++;
+    remove(findPartition(topic), topic);
+  }
+
+  /** Calls {@code consumer} with a snapshot of all stored messages, outside of any lock. */
+  void forEach(final BiConsumer<String, MqttMessage> consumer) {
+    forEach(false, consumer);
+  }
+
+  /**
+   * Like {@link #forEach(BiConsumer)}, but only the messages published by this instance since it
+   * was started. Messages restored from a snapshot may be older than what the brokers retain.
+   */
+  void forEachPublished(final BiConsumer<String, MqttMessage> consumer) {
+    forEach(true, consumer);
+  }
+
+  private void forEach(
+      final boolean publishedOnly, final BiConsumer<String, MqttMessage> consumer) {
+    final List<Map.Entry<String, Entry>> snapshot = new ArrayList<>();
+    synchronized (this) {
+      for (Partition partition : partitions) snapshot.addAll(partition.entries.entrySet());
+    }
+    for (Map.Entry<String, Entry> entry : snapshot)
+      if (!publishedOnly || entry.getValue().published)
+        consumer.accept(entry.getKey(), entry.getValue().toMessage());
+  }
+
+  /** Count of changes so far, to detect whether anything changed since a previous call. */
+  synchronized long modifications() {
+    return modifications;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  synchronized long evictions() {
+    return evictions;
+  }
+
+  private Partition findPartition(final String topic) {
+    for (Partition partition : partitions)
+      if (topic.startsWith(partition.prefix)) return partition;
+    throw new IllegalStateException("No partition for " + topic);
+  }
+
+  private Partition findEldestPartition() {
+    Partition eldest = null;
+    long eldestSequence = Long.MAX_VALUE;
+    for (Partition partition : partitions) {
+      if (partition.entries.isEmpty()) continue;
+      final long partitionSequence = partition.entries.values().iterator().next().sequence;
+      if (partitionSequence < eldestSequence) {
+        eldest = partition;
+        eldestSequence = partitionSequence;
+      }
+    }
+    return eldest;
+  }
+
+  private void evictEldest(final Partition partition) {
+    final Iterator<Map.Entry<String, Entry>> iterator = partition.entries.entrySet().iterator();
+    final Map.Entry<String, Entry> eldest = iterator.next();
+    iterator.remove();
+    release(partition, eldest.getValue());
+    evictions++;
+    log.debug("Evicted retained message on " + eldest.getKey());
+  }
+
+  private void remove(final Partition partition, final String topic) {
+    final Entry removed = partition.entries.remove(topic);
+    if (removed != null) release(partition, removed);
+  }
+
+  private void release(final Partition partition, final Entry entry) {
+    partition.bytes -= entry.size;
+    bytes -= entry.size;
+    size--;
+  }
+
+  private static class Partition {
+    private final String prefix;
+    private final long maxBytes;
+    /** In order of their last update. */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private long bytes;
+
+    Partition(final String prefix, final long maxBytes) {
+      this.prefix = prefix;
+      this.maxBytes = maxBytes;
+    }
+  }
+
+  private static class Entry {
+    private final int size;
+    private final long sequence;
+    private final MqttMessage message;
+    private final ByteBuffer payload;
+    private final int qos;
+    private final boolean published;
+
+    Entry(
+        final MqttMessage message,
+        final int size,
+        final long sequence,
+        final boolean offHeap,
+        final boolean published) {
+      this.size = size;
+      this.sequence = sequence;
+      this.published = published;
+      qos = message.getQos();
+      if (offHeap) {
+        final byte[] data = message.getPayload();
+        payload = ByteBuffer.allocateDirect(data.length);
+        payload.put(data).flip();
+        this.message = null;
+      } else {
+        payload = null;
+        this.message = message;
+      }
+    }
+
+    /** Whether {@code received} is the echo of this entry, published by this instance. */
+    boolean isPublished(final MqttMessage received) {
+      if (!published) return false;
+      if (message != null) return Arrays.equals(message.getPayload(), received.getPayload());
+      return payload.duplicate().equals(ByteBuffer.wrap(received.getPayload()));
+    }
+
+    MqttMessage toMessage() {
+      if (message != null) return message;
+      final byte[] data = new byte[payload.remaining()];
+      payload.duplicate().get(data);
+      final MqttMessage copy = new MqttMessage(data);
+      copy.setQos(qos);
+      copy.setRetained(true);
+      return copy;
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.RetainedReplaySettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Republishes the retained messages published by this instance to a (re)connected broker. The
+ * messages are paced to the configured rate and only a few of them await their acknowledgement at
+ * a time, so a broker restart does not flood the broker and this process. A message the client
+ * refuses because its in flight window is full is retried, any other refused message is skipped.
+ * The replay aborts when the connection is lost and the next connect starts over.
+ */
+@Slf4j
+class RetainedReplayer {
+  private static final long WINDOW_RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+  private final RetainedMessageStore store;
+  private final ScheduledExecutorService executorService;
+  private final MeterRegistry meterRegistry;
+  private final long interval;
+  private final int maxInFlight;
+  private final AtomicLong pending = new AtomicLong();
+  private final Counter sent;
+  private final Counter failed;
+  private final Timer duration;
+  private final List<Meter> meters;
+
+  RetainedReplayer(
+      final RetainedReplaySettings settings,
+      final RetainedMessageStore store,
+      final ScheduledExecutorService executorService,
+      final MeterRegistry meterRegistry) {
+    this.store = store;
+    this.executorService = executorService;
+    this.meterRegistry = meterRegistry;
+    interval =
+        settings.getMessagesPerSecond() > 0
+            ? TimeUnit.SECONDS.toNanos(1) / settings.getMessagesPerSecond()
+            : 0;
+    maxInFlight = Math.max(1, settings.getMaxInFlight());
+    sent = Counter.builder("touchmenu.mqtt.retained.replay.sent").register(meterRegistry);
+    failed = Counter.builder("touchmenu.mqtt.retained.replay.failed").register(meterRegistry);
+    duration = Timer.builder("touchmenu.mqtt.retained.replay").register(meterRegistry);
+    meters =
+        Arrays.asList(
+            sent,
+            failed,
+            duration,
+            Gauge.builder("touchmenu.mqtt.retained.replay.pending", pending, AtomicLong::get)
+                .register(meterRegistry));
+  }
+
+  /**
+   * Starts to republish to {@code client}.
+   *
+   * @param done called when the replay ends, after all messages are acknowledged or when it aborts
+   */
+  void replay(final IMqttAsyncClient client, final Runnable done) {
+    final Deque<Map.Entry<String, MqttMessage>> messages = new ArrayDeque<>();
+    store.forEachPublished(
+        (topic, message) -> messages.add(new AbstractMap.SimpleImmutableEntry<>(topic, message)));
+    pending.addAndGet(messages.size());
+    new Replay(client, messages, done).pump();
+  }
+
+  void close() {
+    meters.forEach(meterRegistry::remove);
+  }
+
+  private class Replay implements IMqttActionListener {
+    private final IMqttAsyncClient client;
+    private final Deque<Map.Entry<String, MqttMessage>> remaining;
+    private final Runnable done;
+    private final long start = System.nanoTime();
+    private long started;
+    private int inFlight;
+    private boolean waiting;
+    private boolean finished;
+
+    Replay(
+        final IMqttAsyncClient client,
+        final Deque<Map.Entry<String, MqttMessage>> remaining,
+        final Runnable done) {
+      this.client = client;
+      this.remaining = remaining;
+      this.done = done;
+    }
+
+    void pump() {
+      synchronized (this) {
+        // a nested pump of an acknowledgement within publish may have finished or paused already
+        while (!finished && !waiting && inFlight < maxInFlight && !remaining.isEmpty()) {
+          final long delay = start + started * interval - System.nanoTime();
+          if (delay > 0) {
+            waiting = true;
+            executorService.schedule(this::resume, delay, TimeUnit.NANOSECONDS);
+            return;
+          }
+          // counted before publishing, the acknowledgement may arrive within publish
+          final Map.Entry<String, MqttMessage> next = remaining.poll();
+          pending.decrementAndGet();
+          started++;
+          inFlight++;
+          try {
+            client.publish(next.getKey(), next.getValue(), null, this);
+          } catch (MqttException | RuntimeException e) {
+            inFlight--;
+            // the in flight window of the client is full, maybe with other traffic only: retry
+            // after our next acknowledgement, or after a while if none of ours is outstanding
+            if (e instanceof MqttException
+                && ((MqttException) e).getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+              remaining.addFirst(next);
+              pending.incrementAndGet();
+              started--;
+              if (inFlight == 0) {
+                waiting = true;
+                executorService.schedule(this::resume, WINDOW_RETRY_DELAY, TimeUnit.NANOSECONDS);
+              }
+              return;
+            }
+            failed.increment();
+            if (client.isConnected()) {
+              log.warn("Cannot replay retained message on " + next.getKey(), e);
+              continue;
+            }
+            log.warn("Replay of retained messages to " + client.getServerURI() + " aborted", e);
+            pending.addAndGet(-remaining.size());
+            remaining.clear();
+            break;
+          }
+        }
+        if (finished || waiting || inFlight > 0 || !remaining.isEmpty()) return;
+        finished = true;
+      }
+      duration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      done.run();
+    }
+
+    private void resume() {
+      synchronized (this) {
+        waiting = false;
+      }
+      pump();
+    }
+
+    @Override
+    public void onSuccess(final IMqttToken asyncActionToken) {
+      synchronized (this) {
+        inFlight--;
+      }
+      sent.increment();
+      pump();
+    }
+
+    @Override
+    public void onFailure(final IMqttToken asyncActionToken, final Throwable exception) {
+      synchronized (this) {
+        inFlight--;
+      }
+      log.warn("Cannot replay retained message to " + client.getServerURI(), exception);
+      failed.increment();
+      pump();
+    }
+  }
+}
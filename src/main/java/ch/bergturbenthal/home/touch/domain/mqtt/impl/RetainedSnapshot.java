@@ -0,0 +1,140 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the content of a {@link RetainedMessageStore} in a memory-mapped file, so the last known
+ * state is available right after a restart. Each snapshot is appended record by record to a new
+ * file which then atomically replaces the previous one. A record holds the topic, QoS and payload
+ * followed by a CRC32 of these, loading stops at the first damaged record. Loads and writes are
+ * serialized, so the final write on shutdown never races a scheduled one for the temporary file.
+ */
+@Slf4j
+class RetainedSnapshot {
+  private static final int MAGIC = 0x544d5253;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  /** Topic length, QoS, payload length and checksum. */
+  private static final int RECORD_OVERHEAD = 4 + 1 + 4 + 4;
+
+  private final Path file;
+  private long writtenModifications = -1;
+
+  RetainedSnapshot(final Path file) {
+    this.file = file;
+  }
+
+  /** @return count of restored messages */
+  synchronized int load(final RetainedMessageStore store) throws IOException {
+    if (!Files.exists(file)) return 0;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      try {
+        return load(store, buffer);
+      } finally {
+        MappedBuffers.unmap(buffer);
+      }
+    }
+  }
+
+  private int load(final RetainedMessageStore store, final MappedByteBuffer buffer) {
+    if (buffer.remaining() < HEADER_SIZE
+        || buffer.getInt() != MAGIC
+        || buffer.getInt() != VERSION) {
+      log.warn("Ignoring retained snapshot " + file + " of unknown format");
+      return 0;
+    }
+    final CRC32 checksum = new CRC32();
+    int count = 0;
+    while (buffer.remaining() >= RECORD_OVERHEAD) {
+      final int start = buffer.position();
+      final int topicLength = buffer.getInt();
+      if (topicLength < 0 || topicLength > buffer.remaining() - RECORD_OVERHEAD + 4) break;
+      final byte[] topic = new byte[topicLength];
+      buffer.get(topic);
+      final int qos = buffer.get();
+      final int payloadLength = buffer.getInt();
+      if (payloadLength < 0 || payloadLength > buffer.remaining() - 4) break;
+      final byte[] payload = new byte[payloadLength];
+      buffer.get(payload);
+      final ByteBuffer record = buffer.duplicate();
+      record.position(start).limit(buffer.position());
+      checksum.reset();
+      checksum.update(record);
+      if ((int) checksum.getValue() != buffer.getInt()) break;
+      final MqttMessage message = new MqttMessage(payload);
+      message.setQos(qos);
+      message.setRetained(true);
+      store.restore(new String(topic, StandardCharsets.UTF_8), message);
+      count++;
+    }
+    if (buffer.hasRemaining())
+      log.warn("Retained snapshot " + file + " damaged after " + count + " messages");
+    writtenModifications = store.modifications();
+    return count;
+  }
+
+  /** Writes the content of {@code store} unless it did not change since the last write. */
+  synchronized void write(final RetainedMessageStore store) throws IOException {
+    final long modifications = store.modifications();
+    if (modifications == writtenModifications) return;
+    final List<byte[]> topics = new ArrayList<>();
+    final List<MqttMessage> messages = new ArrayList<>();
+    store.forEach(
+        (topic, message) -> {
+          topics.add(topic.getBytes(StandardCharsets.UTF_8));
+          messages.add(message);
+        });
+    long size = HEADER_SIZE;
+    for (int i = 0; i < topics.size(); i++)
+      size += RECORD_OVERHEAD + topics.get(i).length + messages.get(i).getPayload().length;
+    final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            tempFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      try {
+        buffer.putInt(MAGIC).putInt(VERSION);
+        final CRC32 checksum = new CRC32();
+        for (int i = 0; i < topics.size(); i++) {
+          final int start = buffer.position();
+          final byte[] topic = topics.get(i);
+          final MqttMessage message = messages.get(i);
+          final byte[] payload = message.getPayload();
+          buffer.putInt(topic.length).put(topic);
+          buffer.put((byte) message.getQos());
+          buffer.putInt(payload.length).put(payload);
+          final ByteBuffer record = buffer.duplicate();
+          record.position(start).limit(buffer.position());
+          checksum.reset();
+          checksum.update(record);
+          buffer.putInt((int) checksum.getValue());
+        }
+        buffer.force();
+      } finally {
+        MappedBuffers.unmap(buffer);
+      }
+    }
+    Files.move(
+        tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    writtenModifications = modifications;
+  }
+}
@@ -0,0 +1,115 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.DispatchSettings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs inbound message handling on a fixed set of worker threads instead of the callback thread of
+ * the connection. Topics are assigned to a worker by their hash, so the messages of one topic are
+ * handled in order while a slow listener only delays the topics sharing its worker. The caller is
+ * the callback thread of the connection and never waits: a full worker queue drops a message as
+ * configured by {@link DispatchSettings#getOverflow()} and counts it.
+ */
+@Slf4j
+class StripedDispatcher {
+  private final Lane[] lanes;
+  private final Timer waitTimer;
+  private final Timer handleTimer;
+  private final Counter droppedMessages;
+  private final DispatchSettings.DispatchOverflow overflow;
+  private final List<Meter> meters = new ArrayList<>();
+  private final MeterRegistry meterRegistry;
+
+  StripedDispatcher(final DispatchSettings settings, final MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+    final int threads =
+        settings.getThreads() > 0
+            ? settings.getThreads()
+            : Runtime.getRuntime().availableProcessors();
+    waitTimer = Timer.builder("touchmenu.mqtt.dispatch.wait").register(meterRegistry);
+    handleTimer = Timer.builder("touchmenu.mqtt.dispatch.duration").register(meterRegistry);
+    droppedMessages = Counter.builder("touchmenu.mqtt.dispatch.dropped").register(meterRegistry);
+    meters.add(waitTimer);
+    meters.add(handleTimer);
+    meters.add(droppedMessages);
+    overflow = settings.getOverflow();
+    lanes = new Lane[threads];
+    for (int i = 0; i < threads; i++) {
+      final Lane lane = new Lane(i, settings.getQueueCapacity());
+      lanes[i] = lane;
+      meters.add(
+          Gauge.builder("touchmenu.mqtt.dispatch.queue", lane.queue, BlockingQueue::size)
+              .tag("lane", Integer.toString(i))
+              .register(meterRegistry));
+      lane.start();
+    }
+  }
+
+  void dispatch(final String topic, final Runnable handler) {
+    final Lane lane = lanes[Math.floorMod(topic.hashCode(), lanes.length)];
+    final long enqueued = System.nanoTime();
+    final Runnable task =
+        () -> {
+          final long started = System.nanoTime();
+          waitTimer.record(started - enqueued, TimeUnit.NANOSECONDS);
+          try {
+            handler.run();
+          } catch (Throwable ex) {
+            // also errors: a dead lane would fill up and drop every further message
+            log.warn("Cannot handle message on " + topic, ex);
+          }
+          handleTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        };
+    if (lane.queue.offer(task)) return;
+    if (overflow == DispatchSettings.DispatchOverflow.DROP_OLDEST)
+      // the lane may take the oldest one itself meanwhile, then there is room without a drop
+      do {
+        if (lane.queue.poll() != null) droppedMessages.increment();
+      } while (!lane.queue.offer(task));
+    else droppedMessages.increment();
+  }
+
+  void shutdown() {
+    for (Lane lane : lanes) lane.interrupt();
+    meters.forEach(meterRegistry::remove);
+  }
+
+  private static class Lane extends Thread {
+    private final BlockingQueue<Runnable> queue;
+
+    Lane(final int index, final int capacity) {
+      super("mqtt-dispatch-" + index);
+      setDaemon(true);
+      queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void run() {
+      while (!isInterrupted()) {
+        final Runnable task;
+        try {
+          task = queue.take();
+        } catch (InterruptedException e) {
+          // shut down
+          return;
+        }
+        try {
+          task.run();
+        } catch (Throwable ex) {
+          log.warn("Dispatch task failed on " + getName(), ex);
+        }
+      }
+    }
+  }
+}
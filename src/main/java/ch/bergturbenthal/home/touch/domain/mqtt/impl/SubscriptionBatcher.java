@@ -0,0 +1,182 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.SubscriptionSettings;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Collects the topics to subscribe and unsubscribe at the brokers and sends them as one SUBSCRIBE
+ * and one UNSUBSCRIBE per broker. New topics are sent after the batch window, topics losing their
+ * last listener stay subscribed for a grace period and are kept if requested again meanwhile.
+ *
+ * <p>Flushes may run on several threads at once. A batch is taken and sent while holding the send
+ * lock, so the brokers get the batches in the order they were taken and an UNSUBSCRIBE never
+ * overtakes the SUBSCRIBE of the same topic.
+ *
+ * <p>A broker can be held: it gets no SUBSCRIBE until {@link #subscribeActive} releases it, but
+ * still every UNSUBSCRIBE, as it may have got the SUBSCRIBE of the topic before it was held.
+ */
+@Slf4j
+class SubscriptionBatcher {
+  private final long batchWindow;
+  private final long unsubscribeGrace;
+  private final ScheduledExecutorService executorService;
+  private final Supplier<Collection<? extends IMqttAsyncClient>> clients;
+  private final Map<String, TopicState> topics = new HashMap<>();
+  private final Object sendLock = new Object();
+  private final Set<IMqttAsyncClient> held = ConcurrentHashMap.newKeySet();
+  private ScheduledFuture<?> flushTask;
+  private long flushAt;
+
+  SubscriptionBatcher(
+      final SubscriptionSettings settings,
+      final ScheduledExecutorService executorService,
+      final Supplier<Collection<? extends IMqttAsyncClient>> clients) {
+    batchWindow = settings.getBatchWindow().toNanos();
+    unsubscribeGrace = settings.getUnsubscribeGrace().toNanos();
+    this.executorService = executorService;
+    this.clients = clients;
+  }
+
+  /** Called when a topic gets its first listener. */
+  synchronized void subscribe(final String topic) {
+    final TopicState state = topics.get(topic);
+    if (state == null) {
+      topics.put(topic, new TopicState());
+      scheduleFlush(System.nanoTime() + batchWindow);
+    } else if (state.unsubscribeAt != 0) state.unsubscribeAt = 0;
+  }
+
+  /** Called when a topic lost its last listener. */
+  synchronized void unsubscribe(final String topic) {
+    final TopicState state = topics.get(topic);
+    if (state == null) return;
+    if (!state.subscribed) topics.remove(topic);
+    else {
+      state.unsubscribeAt = System.nanoTime() + unsubscribeGrace;
+      scheduleFlush(state.unsubscribeAt);
+    }
+  }
+
+  /**
+   * Topics to subscribe at a newly connected broker: the ones sent to the brokers already, the
+   * others follow with the next batch. A topic still waiting for its batch may be dropped without
+   * an UNSUBSCRIBE, so it must not reach a broker ahead of it.
+   */
+  synchronized String[] activeTopics() {
+    final List<String> active = new ArrayList<>();
+    for (Map.Entry<String, TopicState> entry : topics.entrySet())
+      if (entry.getValue().subscribed) active.add(entry.getKey());
+    return active.toArray(new String[0]);
+  }
+
+  /** Sends no SUBSCRIBE to {@code client} until {@link #subscribeActive} is called for it. */
+  void hold(final IMqttAsyncClient client) {
+    held.add(client);
+  }
+
+  /**
+   * Releases a held broker and subscribes all active topics at it. Runs under the send lock, so no
+   * batch taken before is sent after it.
+   */
+  void subscribeActive(final IMqttAsyncClient client) {
+    synchronized (sendLock) {
+      held.remove(client);
+      final String[] activeTopics = activeTopics();
+      if (activeTopics.length == 0) return;
+      final int[] qos = new int[activeTopics.length];
+      Arrays.fill(qos, 1);
+      try {
+        client.subscribe(activeTopics, qos);
+      } catch (MqttException e) {
+        log.warn("Cannot subscribe to topics " + Arrays.toString(activeTopics), e);
+      }
+    }
+  }
+
+  synchronized void shutdown() {
+    if (flushTask != null) flushTask.cancel(false);
+  }
+
+  private void scheduleFlush(final long at) {
+    if (flushTask != null && !flushTask.isDone() && flushAt - at <= 0) return;
+    if (flushTask != null) flushTask.cancel(false);
+    flushAt = at;
+    flushTask =
+        executorService.schedule(this::flush, at - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  private void flush() {
+    synchronized (sendLock) {
+      sendBatch();
+    }
+  }
+
+  private void sendBatch() {
+    final List<String> subscribes = new ArrayList<>();
+    final List<String> unsubscribes = new ArrayList<>();
+    synchronized (this) {
+      flushTask = null;
+      final long now = System.nanoTime();
+      long nextUnsubscribe = 0;
+      for (Iterator<Map.Entry<String, TopicState>> iterator = topics.entrySet().iterator();
+          iterator.hasNext(); ) {
+        final Map.Entry<String, TopicState> entry = iterator.next();
+        final TopicState state = entry.getValue();
+        if (!state.subscribed) {
+          subscribes.add(entry.getKey());
+          state.subscribed = true;
+        } else if (state.unsubscribeAt != 0) {
+          if (state.unsubscribeAt - now <= 0) {
+            unsubscribes.add(entry.getKey());
+            iterator.remove();
+          } else if (nextUnsubscribe == 0 || state.unsubscribeAt - nextUnsubscribe < 0)
+            nextUnsubscribe = state.unsubscribeAt;
+        }
+      }
+      if (nextUnsubscribe != 0) scheduleFlush(nextUnsubscribe);
+    }
+    if (subscribes.isEmpty() && unsubscribes.isEmpty()) return;
+    final String[] subscribeTopics = subscribes.toArray(new String[0]);
+    final String[] unsubscribeTopics = unsubscribes.toArray(new String[0]);
+    final int[] qos = new int[subscribeTopics.length];
+    Arrays.fill(qos, 1);
+    for (IMqttAsyncClient client : clients.get()) {
+      if (!client.isConnected()) continue;
+      try {
+        if (subscribeTopics.length > 0 && !held.contains(client))
+          client.subscribe(subscribeTopics, qos);
+        if (unsubscribeTopics.length > 0) client.unsubscribe(unsubscribeTopics);
+      } catch (MqttException e) {
+        log.warn(
+            "Cannot update subscriptions, subscribe "
+                + subscribes
+                + ", unsubscribe "
+                + unsubscribes,
+            e);
+      }
+    }
+  }
+
+  private static class TopicState {
+    /** Sent to the brokers already. */
+    private boolean subscribed;
+    /** Time to unsubscribe at if set. */
+    private long unsubscribeAt;
+  }
+}
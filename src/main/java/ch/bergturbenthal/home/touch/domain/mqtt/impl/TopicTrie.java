@@ -0,0 +1,177 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Maps MQTT topic filters to values and finds the values of all filters matching a topic in
+ * O(topic depth), with native support for the {@code +} and {@code #} wildcards. Lookups never
+ * lock and see every completed modification. Modifications only lock the nodes along their filter,
+ * so modifications of different filters run in parallel; modifications of the same filter have to
+ * be ordered by the caller.
+ */
+public class TopicTrie<V> {
+  private static final String SINGLE_LEVEL = "+";
+  private static final String MULTI_LEVEL = "#";
+  private final Node<V> root = new Node<>();
+
+  /** Whether {@code topic} matches {@code filter}, following the rules of MQTT 3.1.1 4.7. */
+  public static boolean matches(final String filter, final String topic) {
+    if (topic.startsWith("$") && (filter.startsWith("+") || filter.startsWith("#")))
+      return false;
+    int filterPos = 0;
+    int topicPos = 0;
+    while (true) {
+      final int filterEnd = levelEnd(filter, filterPos);
+      if (filterEnd - filterPos == 1 && filter.charAt(filterPos) == '#') return true;
+      if (topicPos > topic.length()) return false;
+      final int topicEnd = levelEnd(topic, topicPos);
+      final boolean singleLevel = filterEnd - filterPos == 1 && filter.charAt(filterPos) == '+';
+      if (!singleLevel
+          && (filterEnd - filterPos != topicEnd - topicPos
+              || !filter.regionMatches(filterPos, topic, topicPos, filterEnd - filterPos)))
+        return false;
+      final boolean filterDone = filterEnd == filter.length();
+      final boolean topicDone = topicEnd == topic.length();
+      if (filterDone) return topicDone;
+      filterPos = filterEnd + 1;
+      topicPos = topicDone ? topic.length() + 1 : topicEnd + 1;
+    }
+  }
+
+  private static int levelEnd(final String topic, final int start) {
+    final int end = topic.indexOf('/', start);
+    return end < 0 ? topic.length() : end;
+  }
+
+  public V get(final String filter) {
+    Node<V> node = root;
+    int pos = 0;
+    while (node != null && pos >= 0) {
+      final int end = levelEnd(filter, pos);
+      node = node.children.get(filter.substring(pos, end));
+      pos = end < filter.length() ? end + 1 : -1;
+    }
+    return node == null ? null : node.value;
+  }
+
+  public void put(final String filter, final V value) {
+    retry:
+    while (true) {
+      Node<V> node = root;
+      int pos = 0;
+      while (true) {
+        final Node<V> next;
+        synchronized (node) {
+          // pruned by a concurrent remove after we found it, start over from the root
+          if (node.removed) continue retry;
+          if (pos < 0) {
+            node.value = value;
+            return;
+          }
+          final int end = levelEnd(filter, pos);
+          next = node.children.computeIfAbsent(filter.substring(pos, end), k -> new Node<>());
+          pos = end < filter.length() ? end + 1 : -1;
+        }
+        node = next;
+      }
+    }
+  }
+
+  /** Removes the value of {@code filter} and prunes the nodes no longer leading to any value. */
+  public void remove(final String filter) {
+    remove(root, filter, 0);
+  }
+
+  private void remove(final Node<V> node, final String filter, final int pos) {
+    if (pos < 0) {
+      synchronized (node) {
+        node.value = null;
+      }
+      return;
+    }
+    final int end = levelEnd(filter, pos);
+    final String level = filter.substring(pos, end);
+    final Node<V> child = node.children.get(level);
+    if (child == null) return;
+    remove(child, filter, end < filter.length() ? end + 1 : -1);
+    // parent before child, a put never holds more than one node
+    synchronized (node) {
+      synchronized (child) {
+        if (child.removed || child.value != null || !child.children.isEmpty()) return;
+        child.removed = true;
+        node.children.remove(level, child);
+      }
+    }
+  }
+
+  /** Calls {@code consumer} with the value of every filter matching {@code topic}. */
+  public void forEachMatch(final String topic, final Consumer<? super V> consumer) {
+    match(root, topic, 0, !topic.startsWith("$"), consumer);
+  }
+
+  /** Whether any filter matches {@code topic}. */
+  public boolean hasMatch(final String topic) {
+    return hasMatch(root, topic, 0, !topic.startsWith("$"));
+  }
+
+  private boolean hasMatch(
+      final Node<V> node, final String topic, final int pos, final boolean wildcards) {
+    final Map<String, Node<V>> children = node.children;
+    if (pos < 0 && node.value != null) return true;
+    if (children.isEmpty()) return false;
+    if (wildcards && hasValue(children.get(MULTI_LEVEL))) return true;
+    if (pos < 0) return false;
+    final int end = levelEnd(topic, pos);
+    final int next = end < topic.length() ? end + 1 : -1;
+    final Node<V> exact = children.get(topic.substring(pos, end));
+    if (exact != null && hasMatch(exact, topic, next, true)) return true;
+    if (!wildcards) return false;
+    final Node<V> single = children.get(SINGLE_LEVEL);
+    return single != null && hasMatch(single, topic, next, true);
+  }
+
+  private static boolean hasValue(final Node<?> node) {
+    return node != null && node.value != null;
+  }
+
+  private void match(
+      final Node<V> node,
+      final String topic,
+      final int pos,
+      final boolean wildcards,
+      final Consumer<? super V> consumer) {
+    final Map<String, Node<V>> children = node.children;
+    if (children.isEmpty()) {
+      if (pos < 0) accept(node, consumer);
+      return;
+    }
+    if (wildcards) accept(children.get(MULTI_LEVEL), consumer);
+    if (pos < 0) {
+      accept(node, consumer);
+      return;
+    }
+    final int end = levelEnd(topic, pos);
+    final int next = end < topic.length() ? end + 1 : -1;
+    final Node<V> exact = children.get(topic.substring(pos, end));
+    if (exact != null) match(exact, topic, next, true, consumer);
+    if (wildcards) {
+      final Node<V> single = children.get(SINGLE_LEVEL);
+      if (single != null) match(single, topic, next, true, consumer);
+    }
+  }
+
+  private static <V> void accept(final Node<V> node, final Consumer<? super V> consumer) {
+    if (node == null) return;
+    final V value = node.value;
+    if (value != null) consumer.accept(value);
+  }
+
+  private static class Node<V> {
+    private final Map<String, Node<V>> children = new ConcurrentHashMap<>();
+    private volatile V value;
+    /** Detached from the trie, guarded by the monitor of the node. */
+    private boolean removed;
+  }
+}
@@ -4,7 +4,6 @@ import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
 import lombok.Builder;
 import lombok.Value;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
@@ -13,36 +12,105 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 public class DisplayRenderer {
   private final DisplaySettings settings;
+  private final TextLayoutCache textLayoutCache;
+  private final SpriteAtlas spriteAtlas;
+  private final PngEncoderPool pngEncoders;
   private final BufferedImage bufferedImage;
   private final Graphics2D graphics;
   private final AffineTransform transformation;
+  private final AffineTransform baseTransform;
+  private final boolean deviceOriented;
+  private final int deviceQuadrant;
+  private final Font[] styledFonts = new Font[4];
+  private final Stroke stroke = new BasicStroke(0.0f);
+  // scratch objects reused between frames, a renderer is only used by one thread at a time
+  private final Rectangle2D.Double zoneScratch = new Rectangle2D.Double();
+  private final AffineTransform moveIntoScratch = new AffineTransform();
+  private final double[] cornerScratch = new double[4];
+  private final Map<Shape, Rectangle2D> shapeBounds = new IdentityHashMap<>();
+  private final TextLayoutCache.LayoutKey layoutKey = new TextLayoutCache.LayoutKey();
+  private final SpriteAtlas.ShapeKey shapeKey = new SpriteAtlas.ShapeKey();
+  private final SpriteAtlas.IconKey iconKey = new SpriteAtlas.IconKey();
+  private final byte background;
+  private Font font;
+  private Color inkColor;
+  private int inkSample;
+  private AffineTransformOp rotateOp;
+  private BufferedImage rotatedFrame;
 
-  public DisplayRenderer(final DisplaySettings settings) {
+  /**
+   * Renderers are created by the {@link DisplayRendererFactory}, which owns the shared caches and
+   * the encoder pool and sizes them from the renderer settings.
+   *
+   * @param deviceOriented draw directly into an image in device orientation instead of rotating
+   *     the finished frame on every {@link #renderFrame()}
+   */
+  public DisplayRenderer(
+      final DisplaySettings settings,
+      final TextLayoutCache textLayoutCache,
+      final SpriteAtlas spriteAtlas,
+      final PngEncoderPool pngEncoders,
+      final boolean deviceOriented) {
     this.settings = settings;
-    bufferedImage =
-        new BufferedImage(
-            settings.getWidth(), settings.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
-    graphics = bufferedImage.createGraphics();
-    clear();
+    this.textLayoutCache = textLayoutCache;
+    this.spriteAtlas = spriteAtlas;
+    this.pngEncoders = pngEncoders;
+    this.deviceOriented = deviceOriented;
     transformation = new AffineTransform();
+    final int quadrant;
     switch (settings.getOrientation()) {
       case DEFAULT:
+      default:
+        quadrant = 0;
         break;
       case ROTATE_LEFT:
+        quadrant = 1;
         transformation.quadrantRotate(1, settings.getHeight() / 2, settings.getHeight() / 2);
         break;
       case ROTATE_RIGHT:
+        quadrant = 3;
         transformation.quadrantRotate(3, settings.getWidth() / 2, settings.getWidth() / 2);
         break;
       case UPSIDE_DOWN:
+        quadrant = 2;
         transformation.quadrantRotate(2, settings.getWidth() / 2, settings.getHeight() / 2);
         break;
     }
+    if (deviceOriented) {
+      final Rectangle deviceBounds =
+          transformation
+              .createTransformedShape(
+                  new Rectangle(0, 0, settings.getWidth(), settings.getHeight()))
+              .getBounds();
+      bufferedImage =
+          new BufferedImage(
+              deviceBounds.x + deviceBounds.width,
+              deviceBounds.y + deviceBounds.height,
+              BufferedImage.TYPE_BYTE_BINARY);
+      baseTransform = transformation;
+    } else {
+      bufferedImage =
+          new BufferedImage(
+              settings.getWidth(), settings.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+      baseTransform = new AffineTransform();
+    }
+    deviceQuadrant = deviceOriented ? quadrant : 0;
+    styledFonts[Font.PLAIN] = new Font(Font.SANS_SERIF, Font.PLAIN, settings.getBigFontSize());
+    graphics = bufferedImage.createGraphics();
+    final Object whitePixel =
+        bufferedImage.getColorModel().getDataElements(Color.WHITE.getRGB(), null);
+    background = ((byte[]) whitePixel)[0] == 0 ? 0 : (byte) 0xff;
+    graphics.setTransform(baseTransform);
+    clear();
   }
 
   public Point2D calcTouchPosition(int x, int y) {
@@ -54,14 +122,19 @@ public class DisplayRenderer {
   }
 
   public void clear() {
-    graphics.setColor(Color.WHITE);
-    graphics.fill(new Rectangle2D.Float(0, 0, settings.getWidth(), settings.getHeight()));
+    // the canvas covers the whole image, fill the raster directly instead of a rotated rectangle
+    Arrays.fill(((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData(), background);
     graphics.setColor(Color.BLACK);
-    graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, settings.getBigFontSize()));
-    graphics.setStroke(new BasicStroke(0.0f));
+    font = styledFonts[Font.PLAIN];
+    graphics.setStroke(stroke);
   }
 
   public Rectangle2D getTouchZone(ZoneAddress position, double margin) {
+    return getTouchZone(position, margin, new Rectangle2D.Double());
+  }
+
+  private Rectangle2D getTouchZone(
+      ZoneAddress position, double margin, final Rectangle2D.Double target) {
     final int touchColumnCount = settings.getTouchColumnCount();
     final int column = position.getColumn();
     if (column >= touchColumnCount)
@@ -82,16 +155,17 @@ public class DisplayRenderer {
     double touchFieldHeight = height * 1.0 / touchRowCount;
     final int colSpan = position.getColSpan();
     final int rowSpan = position.getRowSpan();
-    return new Rectangle2D.Double(
+    target.setRect(
         touchFieldWidth * column + margin,
         touchFieldHeight * row + margin,
         touchFieldWidth * colSpan - 2 * margin,
         touchFieldHeight * rowSpan - 2 * margin);
+    return target;
   }
 
   public void setFontStyle(int style) {
-    final Font font = graphics.getFont();
-    graphics.setFont(font.deriveFont(style));
+    if (styledFonts[style] == null) styledFonts[style] = styledFonts[Font.PLAIN].deriveFont(style);
+    font = styledFonts[style];
   }
 
   //  public void setFont(Font font) {
@@ -103,7 +177,7 @@ public class DisplayRenderer {
       ZoneAddress position,
       VerticalAlignment verticalAlignment,
       HorizontalAlignment horizontalAlignment) {
-    final Rectangle2D zone = getTouchZone(position, 1);
+    final Rectangle2D zone = getTouchZone(position, 1, zoneScratch);
     final double y;
     switch (verticalAlignment) {
       case TOP:
@@ -139,19 +213,75 @@ public class DisplayRenderer {
   }
 
   public void fillShape(Shape shape, ZoneAddress position) {
-    graphics.setTransform(createMoveIntoTransform(getTouchZone(position, 2), shape.getBounds2D()));
-    graphics.fill(shape);
-    graphics.setTransform(new AffineTransform());
+    paintShape(shape, position, true);
   }
 
   public void drawShape(Shape shape, ZoneAddress position) {
-    graphics.setTransform(createMoveIntoTransform(getTouchZone(position, 2), shape.getBounds2D()));
-    graphics.draw(shape);
-    graphics.setTransform(new AffineTransform());
+    paintShape(shape, position, false);
+  }
+
+  /**
+   * Draws an image, given as Spring resource location, scaled to fit into the zone. Images which
+   * cannot be loaded are skipped.
+   */
+  public void drawIcon(String icon, ZoneAddress position) {
+    final Rectangle2D zone = getTouchZone(position, 2, zoneScratch);
+    final Sprite sprite =
+        spriteAtlas.getIcon(
+            iconKey.set(icon, (int) zone.getWidth(), (int) zone.getHeight(), deviceQuadrant));
+    paintSprite(sprite, (int) Math.round(zone.getX()), (int) Math.round(zone.getY()));
+  }
+
+  /**
+   * Takes the shape from the sprite atlas, rasterized with the sub pixel part of its position.
+   * Rasterizing unrotated and rotating the pixels also keeps rendering in device orientation
+   * identical to rotating the finished frame, as Java2D normalizes shape coordinates in device
+   * space.
+   */
+  private void paintShape(final Shape shape, final ZoneAddress position, final boolean fill) {
+    final AffineTransform moveIntoTransform =
+        createMoveIntoTransform(
+            getTouchZone(position, 2, zoneScratch),
+            shapeBounds.computeIfAbsent(shape, Shape::getBounds2D),
+            moveIntoScratch);
+    final double originX = Math.floor(moveIntoTransform.getTranslateX());
+    final double originY = Math.floor(moveIntoTransform.getTranslateY());
+    moveIntoTransform.setTransform(
+        moveIntoTransform.getScaleX(),
+        0,
+        0,
+        moveIntoTransform.getScaleY(),
+        moveIntoTransform.getTranslateX() - originX,
+        moveIntoTransform.getTranslateY() - originY);
+    final Sprite sprite =
+        spriteAtlas.getShape(
+            shapeKey.set(shape, fill, graphics.getStroke(), moveIntoTransform, deviceQuadrant));
+    paintSprite(sprite, (int) originX, (int) originY);
+  }
+
+  private void paintSprite(final Sprite sprite, final int originX, final int originY) {
+    cornerScratch[0] = originX + sprite.getOffsetX();
+    cornerScratch[1] = originY + sprite.getOffsetY();
+    cornerScratch[2] = cornerScratch[0] + sprite.getWidth();
+    cornerScratch[3] = cornerScratch[1] + sprite.getHeight();
+    baseTransform.transform(cornerScratch, 0, cornerScratch, 0, 2);
+    final int deviceX = (int) Math.floor(Math.min(cornerScratch[0], cornerScratch[2]));
+    final int deviceY = (int) Math.floor(Math.min(cornerScratch[1], cornerScratch[3]));
+    sprite.paint(bufferedImage, deviceX, deviceY, inkSample());
+  }
+
+  private int inkSample() {
+    final Color color = graphics.getColor();
+    if (color != inkColor) {
+      final Object pixel = bufferedImage.getColorModel().getDataElements(color.getRGB(), null);
+      inkSample = ((byte[]) pixel)[0];
+      inkColor = color;
+    }
+    return inkSample;
   }
 
   private AffineTransform createMoveIntoTransform(
-      final Rectangle2D targetZone, final Rectangle2D shapeZone) {
+      final Rectangle2D targetZone, final Rectangle2D shapeZone, final AffineTransform target) {
     double widthScale = targetZone.getWidth() / shapeZone.getWidth();
     double heightScale = targetZone.getHeight() / shapeZone.getHeight();
     double scale = Math.min(widthScale, heightScale);
@@ -159,11 +289,8 @@ public class DisplayRenderer {
     final double srcY = shapeZone.getCenterY() * scale;
     final double centerX = targetZone.getCenterX();
     final double centerY = targetZone.getCenterY();
-    final AffineTransform transform = AffineTransform.getScaleInstance(scale, scale);
-    final AffineTransform translateInstance =
-        AffineTransform.getTranslateInstance(centerX - srcX, centerY - srcY);
-    translateInstance.concatenate(transform);
-    return translateInstance;
+    target.setTransform(scale, 0, 0, scale, centerX - srcX, centerY - srcY);
+    return target;
   }
 
   private void doDrawText(
@@ -174,13 +301,16 @@ public class DisplayRenderer {
       HorizontalAlignment horizontalAlignment,
       final double maxWidth,
       final double maxHeight) {
-
-    final Font fontBefore = graphics.getFont();
+    // switching fonts drops the font state of the graphics, keep it while the size does not change
     final FontRenderContext fontRenderContext = graphics.getFontRenderContext();
-    final Font currentFont =
-        findFittingFont(text, maxWidth, maxHeight, fontBefore, fontRenderContext);
-    graphics.setFont(currentFont);
-    final Rectangle2D stringBounds = currentFont.getStringBounds(text, fontRenderContext);
+    layoutKey.setText(text);
+    layoutKey.setBaseFont(font);
+    layoutKey.setMaxWidth(maxWidth);
+    layoutKey.setMaxHeight(maxHeight);
+    layoutKey.setFontRenderContext(fontRenderContext);
+    final TextLayoutCache.FittedText fittedText = textLayoutCache.fitText(layoutKey);
+    if (!fittedText.getFont().equals(graphics.getFont())) graphics.setFont(fittedText.getFont());
+    final Rectangle2D stringBounds = fittedText.getStringBounds();
     final float drawX;
     final float drawY;
     switch (verticalAlignment) {
@@ -213,33 +343,33 @@ public class DisplayRenderer {
         throw new IllegalArgumentException(
             "Unsupported horizontal alignment: " + horizontalAlignment);
     }
-    graphics.drawString(text, drawX, drawY);
-    graphics.setFont(fontBefore);
+    // whole pixel origins keep glyphs on the same pixels when drawn through the rotation
+    graphics.drawString(text, Math.round(drawX), Math.round(drawY));
   }
 
-  private Font findFittingFont(
-      final String text,
-      final double maxWidth,
-      final double maxHeight,
-      final Font fontBefore,
-      final FontRenderContext fontRenderContext) {
-    float candidateSize = fontBefore.getSize2D();
-    while (candidateSize > 1) {
-      Font currentFont = fontBefore.deriveFont((float) candidateSize);
-      final Rectangle2D stringBounds = currentFont.getStringBounds(text, fontRenderContext);
-      if (!(stringBounds.getWidth() > maxWidth) && !(stringBounds.getHeight() > maxHeight))
-        return currentFont;
-      candidateSize = (float) (candidateSize * 0.7);
-    }
-    return fontBefore;
+  public void render(OutputStream out) throws IOException {
+    encode(renderFrame(), out);
   }
 
-  public void render(OutputStream out) throws IOException {
+  /**
+   * Returns the current content in device orientation. The returned image is reused and
+   * overwritten by the next frame.
+   */
+  public BufferedImage renderFrame() {
+    if (deviceOriented) return bufferedImage;
+    if (rotateOp == null) {
+      rotateOp = new AffineTransformOp(transformation, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+      rotatedFrame = rotateOp.createCompatibleDestImage(bufferedImage, null);
+    }
+    return rotateOp.filter(bufferedImage, rotatedFrame);
+  }
 
-    final AffineTransformOp affineTransformOp =
-        new AffineTransformOp(transformation, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+  public void encode(BufferedImage frame, OutputStream out) throws IOException {
+    pngEncoders.encode(frame, out);
+  }
 
-    ImageIO.write(affineTransformOp.filter(bufferedImage, null), "png", out);
+  public void encode(BufferedImage frame, Rectangle region, OutputStream out) throws IOException {
+    pngEncoders.encode(frame.getSubimage(region.x, region.y, region.width, region.height), out);
   }
 
   public enum VerticalAlignment {
@@ -0,0 +1,68 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import ch.bergturbenthal.home.touch.domain.settings.RendererSettings;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+@Component
+public class DisplayRendererFactory {
+  private final TextLayoutCache textLayoutCache;
+  private final SpriteAtlas spriteAtlas;
+  private final PngEncoderPool pngEncoders;
+  private final boolean renderInDeviceOrientation;
+
+  public DisplayRendererFactory(
+      final MenuProperties properties,
+      final MeterRegistry meterRegistry,
+      final ResourceLoader resourceLoader) {
+    final RendererSettings rendererSettings = properties.getRenderer();
+    textLayoutCache = new TextLayoutCache(rendererSettings.getTextLayoutCacheSize());
+    spriteAtlas = new SpriteAtlas(rendererSettings.getSpriteAtlasSize(), resourceLoader);
+    pngEncoders =
+        new PngEncoderPool(
+            rendererSettings.getPngCompressionLevel(), rendererSettings.getPngEncoderPoolSize());
+    renderInDeviceOrientation = rendererSettings.isRenderInDeviceOrientation();
+    FunctionCounter.builder(
+            "touchmenu.renderer.text.layout.cache", textLayoutCache, TextLayoutCache::getHitCount)
+        .tag("result", "hit")
+        .register(meterRegistry);
+    FunctionCounter.builder(
+            "touchmenu.renderer.text.layout.cache", textLayoutCache, TextLayoutCache::getMissCount)
+        .tag("result", "miss")
+        .register(meterRegistry);
+    Gauge.builder(
+            "touchmenu.renderer.text.layout.cache.size", textLayoutCache, TextLayoutCache::size)
+        .register(meterRegistry);
+    FunctionCounter.builder(
+            "touchmenu.renderer.sprite.atlas", spriteAtlas, SpriteAtlas::getHitCount)
+        .tag("result", "hit")
+        .register(meterRegistry);
+    FunctionCounter.builder(
+            "touchmenu.renderer.sprite.atlas", spriteAtlas, SpriteAtlas::getMissCount)
+        .tag("result", "miss")
+        .register(meterRegistry);
+    Gauge.builder("touchmenu.renderer.sprite.atlas.size", spriteAtlas, SpriteAtlas::size)
+        .register(meterRegistry);
+  }
+
+  public DisplayRenderer createRenderer(final DisplaySettings settings) {
+    return new DisplayRenderer(
+        settings,
+        textLayoutCache,
+        spriteAtlas,
+        pngEncoders,
+        renderInDeviceOrientation);
+  }
+
+  @PreDestroy
+  public void close() {
+    pngEncoders.close();
+  }
+}
@@ -0,0 +1,133 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes {@link BufferedImage#TYPE_BYTE_BINARY} images as 1-bit grayscale PNG, producing the same
+ * chunk layout as the ImageIO PNG writer (IHDR, one IDAT per 32k, IEND, no filtering). Keeps its
+ * deflater and buffers between frames, so an instance must not be shared between threads. The
+ * native memory of the deflater is only released by {@link #close()}, renderers share the
+ * encoders of a {@link PngEncoderPool}.
+ */
+public class PngEncoder {
+  private static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+  };
+  private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+  private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+  private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+  private static final int MAX_IDAT_LENGTH = 32768;
+  private static final byte COLOR_TYPE_GRAY = 0;
+  private static final byte FILTER_NONE = 0;
+
+  private final Deflater deflater;
+  private final CRC32 crc = new CRC32();
+  private final byte[] chunkHeader = new byte[8];
+  private final byte[] header = new byte[13];
+  private byte[] scanlines = new byte[0];
+  private final byte[] compressed = new byte[MAX_IDAT_LENGTH];
+
+  public PngEncoder(final int compressionLevel) {
+    deflater = new Deflater(compressionLevel);
+  }
+
+  public void encode(final BufferedImage image, final OutputStream out) throws IOException {
+    if (image.getType() != BufferedImage.TYPE_BYTE_BINARY || !isBlackWhite(image))
+      throw new IllegalArgumentException("Only black and white binary images are supported");
+    final Raster raster = image.getRaster();
+    final int width = raster.getWidth();
+    final int height = raster.getHeight();
+    final int rowLength = fillScanlines(raster, width, height);
+
+    out.write(SIGNATURE);
+    writeInt(header, 0, width);
+    writeInt(header, 4, height);
+    header[8] = 1;
+    header[9] = COLOR_TYPE_GRAY;
+    header[10] = 0;
+    header[11] = 0;
+    header[12] = 0;
+    writeChunk(out, IHDR, header, header.length);
+
+    deflater.reset();
+    deflater.setInput(scanlines, 0, (rowLength + 1) * height);
+    deflater.finish();
+    while (!deflater.finished()) {
+      final int length = deflater.deflate(compressed, 0, compressed.length);
+      if (length > 0) writeChunk(out, IDAT, compressed, length);
+    }
+    writeChunk(out, IEND, compressed, 0);
+  }
+
+  public void close() {
+    deflater.end();
+  }
+
+  private int fillScanlines(final Raster raster, final int width, final int height) {
+    final MultiPixelPackedSampleModel sampleModel =
+        (MultiPixelPackedSampleModel) raster.getSampleModel();
+    final DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+    final byte[] data = dataBuffer.getData();
+    final int firstColumn = raster.getMinX() - raster.getSampleModelTranslateX();
+    final int firstRow = raster.getMinY() - raster.getSampleModelTranslateY();
+    final int shift = sampleModel.getBitOffset(firstColumn);
+    final int rowLength = (width + 7) / 8;
+    final int requiredLength = (rowLength + 1) * height;
+    if (scanlines.length < requiredLength) scanlines = new byte[requiredLength];
+    final int lastByteMask = 0xff << ((8 - width % 8) % 8);
+    for (int y = 0; y < height; y++) {
+      final int rowStart =
+          dataBuffer.getOffset() + sampleModel.getOffset(firstColumn, firstRow + y);
+      final int target = y * (rowLength + 1) + 1;
+      scanlines[target - 1] = FILTER_NONE;
+      if (shift == 0) System.arraycopy(data, rowStart, scanlines, target, rowLength);
+      else
+        for (int i = 0; i < rowLength; i++) {
+          final int index = rowStart + i;
+          final int high = data[index] << shift;
+          final int low = index + 1 < data.length ? (data[index + 1] & 0xff) >>> (8 - shift) : 0;
+          scanlines[target + i] = (byte) (high | low);
+        }
+      scanlines[target + rowLength - 1] &= lastByteMask;
+    }
+    return rowLength;
+  }
+
+  private void writeChunk(
+      final OutputStream out, final byte[] type, final byte[] data, final int length)
+      throws IOException {
+    writeInt(chunkHeader, 0, length);
+    System.arraycopy(type, 0, chunkHeader, 4, 4);
+    out.write(chunkHeader, 0, 8);
+    out.write(data, 0, length);
+    crc.reset();
+    crc.update(type, 0, 4);
+    crc.update(data, 0, length);
+    writeInt(chunkHeader, 0, (int) crc.getValue());
+    out.write(chunkHeader, 0, 4);
+  }
+
+  private static void writeInt(final byte[] target, final int offset, final int value) {
+    target[offset] = (byte) (value >>> 24);
+    target[offset + 1] = (byte) (value >>> 16);
+    target[offset + 2] = (byte) (value >>> 8);
+    target[offset + 3] = (byte) value;
+  }
+
+  private static boolean isBlackWhite(final BufferedImage image) {
+    if (!(image.getColorModel() instanceof IndexColorModel)) return false;
+    final IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+    return colorModel.getMapSize() == 2
+        && colorModel.getRGB(0) == Color.BLACK.getRGB()
+        && colorModel.getRGB(1) == Color.WHITE.getRGB();
+  }
+}
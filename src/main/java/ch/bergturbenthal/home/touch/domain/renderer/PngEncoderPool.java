@@ -0,0 +1,42 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of {@link PngEncoder}s shared by all renderers, so the native memory of their
+ * deflaters is bounded by the number of concurrent encodings instead of the number of renderers
+ * ever created. Encoders exceeding the capacity are closed when they are returned.
+ */
+public class PngEncoderPool {
+  private final int compressionLevel;
+  private final BlockingQueue<PngEncoder> idle;
+
+  public PngEncoderPool(final int compressionLevel, final int capacity) {
+    this.compressionLevel = compressionLevel;
+    idle = new ArrayBlockingQueue<>(Math.max(1, capacity));
+  }
+
+  public void encode(final BufferedImage image, final OutputStream out) throws IOException {
+    PngEncoder encoder = idle.poll();
+    if (encoder == null) encoder = new PngEncoder(compressionLevel);
+    try {
+      encoder.encode(image, out);
+    } finally {
+      if (!idle.offer(encoder)) encoder.close();
+    }
+  }
+
+  /** Releases the idle encoders, encoders in use are released when they are returned. */
+  public void close() {
+    for (PngEncoder encoder = idle.poll(); encoder != null; encoder = idle.poll())
+      encoder.close();
+  }
+
+  int idleCount() {
+    return idle.size();
+  }
+}
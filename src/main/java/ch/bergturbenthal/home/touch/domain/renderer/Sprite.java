@@ -0,0 +1,97 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import lombok.Getter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Pre-rasterized 1-bit mask of a shape or icon, already rotated into the orientation of the
+ * target image. Rows are packed like a {@link BufferedImage#TYPE_BYTE_BINARY} raster, the leftmost
+ * pixel in the highest bit.
+ */
+public class Sprite {
+  /** Offset of the sprite relative to the whole pixel origin it was rasterized for. */
+  @Getter private final int offsetX;
+
+  @Getter private final int offsetY;
+  /** Size before rotation. */
+  @Getter private final int width;
+
+  @Getter private final int height;
+  private final int maskWidth;
+  private final int maskHeight;
+  private final int maskStride;
+  private final byte[] mask;
+
+  Sprite(
+      final int offsetX,
+      final int offsetY,
+      final int width,
+      final int height,
+      final int maskWidth,
+      final int maskHeight,
+      final byte[] mask) {
+    this.offsetX = offsetX;
+    this.offsetY = offsetY;
+    this.width = width;
+    this.height = height;
+    this.maskWidth = maskWidth;
+    this.maskHeight = maskHeight;
+    maskStride = (maskWidth + 7) / 8;
+    this.mask = mask;
+  }
+
+  /** Sets all pixels covered by the sprite to {@code sample}, its top left corner at x/y. */
+  public void paint(final BufferedImage target, final int x, final int y, final int sample) {
+    final WritableRaster raster = target.getRaster();
+    if (x < 0
+        || y < 0
+        || x + maskWidth > raster.getWidth()
+        || y + maskHeight > raster.getHeight()
+        || !(raster.getSampleModel() instanceof MultiPixelPackedSampleModel)
+        || raster.getSampleModel().getSampleSize(0) != 1) {
+      paintClipped(raster, x, y, sample);
+      return;
+    }
+    final MultiPixelPackedSampleModel sampleModel =
+        (MultiPixelPackedSampleModel) raster.getSampleModel();
+    final DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+    final byte[] data = dataBuffer.getData();
+    final int column = x - raster.getSampleModelTranslateX();
+    final int shift = sampleModel.getBitOffset(column);
+    for (int row = 0; row < maskHeight; row++) {
+      final int targetOffset =
+          dataBuffer.getOffset()
+              + sampleModel.getOffset(column, y + row - raster.getSampleModelTranslateY());
+      final int maskOffset = row * maskStride;
+      for (int i = 0; i < maskStride; i++) {
+        final int bits = mask[maskOffset + i] & 0xff;
+        if (bits == 0) continue;
+        final int high = bits >>> shift;
+        final int low = (bits << (8 - shift)) & 0xff;
+        if (sample == 0) {
+          data[targetOffset + i] &= ~high;
+          if (low != 0) data[targetOffset + i + 1] &= ~low;
+        } else {
+          data[targetOffset + i] |= high;
+          if (low != 0) data[targetOffset + i + 1] |= low;
+        }
+      }
+    }
+  }
+
+  private void paintClipped(
+      final WritableRaster raster, final int x, final int y, final int sample) {
+    final int firstRow = Math.max(0, -y);
+    final int lastRow = Math.min(maskHeight, raster.getHeight() - y);
+    final int firstColumn = Math.max(0, -x);
+    final int lastColumn = Math.min(maskWidth, raster.getWidth() - x);
+    for (int row = firstRow; row < lastRow; row++)
+      for (int column = firstColumn; column < lastColumn; column++)
+        if ((mask[row * maskStride + column / 8] & (0x80 >>> (column & 7))) != 0)
+          raster.setSample(x + column, y + row, 0, sample);
+  }
+}
@@ -0,0 +1,258 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ResourceLoader;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of shapes and icons rasterized into {@link Sprite}s, so a repaint only has to
+ * copy bits. Shapes are keyed by instance, the transformation into their zone (with the
+ * translation reduced to its sub pixel part) and the rotation of the target image. Icons are
+ * loaded as Spring resource locations like {@code classpath:icons/light.png} or {@code
+ * file:/etc/touchmenu/light.png} and keyed by location, zone size and rotation. Can be shared
+ * between renderers: a missing sprite is loaded and rasterized without holding the lock of the
+ * cache, if two threads miss the same key the first one stored wins.
+ */
+@Slf4j
+public class SpriteAtlas {
+  private final Map<Object, Sprite> sprites;
+  private final ResourceLoader resourceLoader;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  public SpriteAtlas(final int maxEntries, final ResourceLoader resourceLoader) {
+    this.resourceLoader = resourceLoader;
+    sprites =
+        new LinkedHashMap<Object, Sprite>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<Object, Sprite> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /** @param key lookup key, may be reused by the caller after this method returns */
+  public Sprite getShape(final ShapeKey key) {
+    final Sprite cached = lookup(key);
+    if (cached != null) return cached;
+    final ShapeKey storedKey = key.copy();
+    return store(storedKey, () -> rasterizeShape(storedKey));
+  }
+
+  /** @param key lookup key, may be reused by the caller after this method returns */
+  public Sprite getIcon(final IconKey key) {
+    final Sprite cached = lookup(key);
+    if (cached != null) return cached;
+    final IconKey storedKey = key.copy();
+    return store(storedKey, () -> rasterizeIcon(storedKey));
+  }
+
+  private Sprite lookup(final Object key) {
+    synchronized (sprites) {
+      final Sprite cached = sprites.get(key);
+      if (cached != null) hitCount.increment();
+      return cached;
+    }
+  }
+
+  private Sprite store(final Object key, final Supplier<Sprite> rasterizer) {
+    missCount.increment();
+    final Sprite sprite = rasterizer.get();
+    synchronized (sprites) {
+      final Sprite stored = sprites.putIfAbsent(key, sprite);
+      return stored != null ? stored : sprite;
+    }
+  }
+
+  private Sprite rasterizeShape(final ShapeKey key) {
+    final AffineTransform transform = key.createTransform();
+    final Rectangle bounds = transform.createTransformedShape(key.getShape()).getBounds();
+    bounds.grow(1, 1);
+    final BufferedImage scratch = createScratch(bounds.width, bounds.height);
+    final Graphics2D graphics = scratch.createGraphics();
+    try {
+      graphics.setColor(Color.BLACK);
+      graphics.setStroke(key.getStroke());
+      graphics.translate(-bounds.x, -bounds.y);
+      graphics.transform(transform);
+      if (key.isFill()) graphics.fill(key.getShape());
+      else graphics.draw(key.getShape());
+    } finally {
+      graphics.dispose();
+    }
+    return createSprite(
+        scratch, bounds.x, bounds.y, bounds.width, bounds.height, key.getQuadrant());
+  }
+
+  private Sprite rasterizeIcon(final IconKey key) {
+    final int width = key.getWidth();
+    final int height = key.getHeight();
+    final BufferedImage scratch = createScratch(width, height);
+    final BufferedImage image = loadIcon(key.getIcon());
+    if (image != null) {
+      final double scale =
+          Math.min(width * 1.0 / image.getWidth(), height * 1.0 / image.getHeight());
+      final int scaledWidth = (int) Math.round(image.getWidth() * scale);
+      final int scaledHeight = (int) Math.round(image.getHeight() * scale);
+      final Graphics2D graphics = scratch.createGraphics();
+      try {
+        graphics.setRenderingHint(
+            RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(
+            image,
+            (width - scaledWidth) / 2,
+            (height - scaledHeight) / 2,
+            scaledWidth,
+            scaledHeight,
+            null);
+      } finally {
+        graphics.dispose();
+      }
+    }
+    return createSprite(scratch, 0, 0, width, height, key.getQuadrant());
+  }
+
+  private BufferedImage loadIcon(final String icon) {
+    try (InputStream in = resourceLoader.getResource(icon).getInputStream()) {
+      final BufferedImage image = ImageIO.read(in);
+      if (image == null) throw new IOException("Unsupported image format");
+      return image;
+    } catch (IOException ex) {
+      log.warn("Cannot load icon " + icon, ex);
+      return null;
+    }
+  }
+
+  /** White image to rasterize into, one per miss, so rasterizations do not wait for each other. */
+  private static BufferedImage createScratch(final int width, final int height) {
+    final BufferedImage scratch =
+        new BufferedImage(
+            Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_BYTE_BINARY);
+    final Graphics2D graphics = scratch.createGraphics();
+    graphics.setColor(Color.WHITE);
+    graphics.fillRect(0, 0, scratch.getWidth(), scratch.getHeight());
+    graphics.dispose();
+    return scratch;
+  }
+
+  private static Sprite createSprite(
+      final BufferedImage scratch,
+      final int offsetX,
+      final int offsetY,
+      final int width,
+      final int height,
+      final int quadrant) {
+    final WritableRaster raster = scratch.getRaster();
+    final int background =
+        ((byte[]) scratch.getColorModel().getDataElements(Color.WHITE.getRGB(), null))[0];
+    final AffineTransform rotation = AffineTransform.getQuadrantRotateInstance(quadrant);
+    final Rectangle maskBounds =
+        rotation.createTransformedShape(new Rectangle(0, 0, width, height)).getBounds();
+    final int maskStride = (maskBounds.width + 7) / 8;
+    final byte[] mask = new byte[maskStride * maskBounds.height];
+    final Point2D.Double point = new Point2D.Double();
+    for (int y = 0; y < height; y++)
+      for (int x = 0; x < width; x++) {
+        if (raster.getSample(x, y, 0) == background) continue;
+        point.setLocation(x + 0.5, y + 0.5);
+        rotation.transform(point, point);
+        final int maskX = (int) Math.floor(point.x) - maskBounds.x;
+        final int maskY = (int) Math.floor(point.y) - maskBounds.y;
+        mask[maskY * maskStride + maskX / 8] |= 0x80 >>> (maskX & 7);
+      }
+    return new Sprite(offsetX, offsetY, width, height, maskBounds.width, maskBounds.height, mask);
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public int size() {
+    synchronized (sprites) {
+      return sprites.size();
+    }
+  }
+
+  /**
+   * Shape drawn with the transformation moving it into its zone, translating by less than a pixel,
+   * and rotated by {@code quadrant} quarter turns.
+   */
+  @Data
+  public static class ShapeKey {
+    private Shape shape;
+    private boolean fill;
+    private Stroke stroke;
+    private double scaleX;
+    private double shearY;
+    private double shearX;
+    private double scaleY;
+    private double translateX;
+    private double translateY;
+    private int quadrant;
+
+    public ShapeKey set(
+        final Shape shape,
+        final boolean fill,
+        final Stroke stroke,
+        final AffineTransform transform,
+        final int quadrant) {
+      this.shape = shape;
+      this.fill = fill;
+      this.stroke = stroke;
+      scaleX = transform.getScaleX();
+      shearY = transform.getShearY();
+      shearX = transform.getShearX();
+      scaleY = transform.getScaleY();
+      translateX = transform.getTranslateX();
+      translateY = transform.getTranslateY();
+      this.quadrant = quadrant;
+      return this;
+    }
+
+    AffineTransform createTransform() {
+      return new AffineTransform(scaleX, shearY, shearX, scaleY, translateX, translateY);
+    }
+
+    ShapeKey copy() {
+      return new ShapeKey().set(shape, fill, stroke, createTransform(), quadrant);
+    }
+  }
+
+  /** Icon scaled into a zone of the given size and rotated by {@code quadrant} quarter turns. */
+  @Data
+  public static class IconKey {
+    private String icon;
+    private int width;
+    private int height;
+    private int quadrant;
+
+    public IconKey set(final String icon, final int width, final int height, final int quadrant) {
+      this.icon = icon;
+      this.width = width;
+      this.height = height;
+      this.quadrant = quadrant;
+      return this;
+    }
+
+    IconKey copy() {
+      return new IconKey().set(icon, width, height, quadrant);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Rectangle2D;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of the font size chosen by {@link DisplayRenderer} to fit a text into a zone.
+ * Can be shared between renderers.
+ */
+public class TextLayoutCache {
+  private static final double SHRINK_FACTOR = 0.7;
+  private final Map<LayoutKey, FittedText> entries;
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+
+  public TextLayoutCache(final int maxEntries) {
+    entries =
+        new LinkedHashMap<LayoutKey, FittedText>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<LayoutKey, FittedText> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  public FittedText fitText(
+      final String text,
+      final Font baseFont,
+      final double maxWidth,
+      final double maxHeight,
+      final FontRenderContext fontRenderContext) {
+    return fitText(new LayoutKey(text, baseFont, maxWidth, maxHeight, fontRenderContext));
+  }
+
+  /** @param key lookup key, may be reused by the caller after this method returns */
+  public FittedText fitText(final LayoutKey key) {
+    synchronized (entries) {
+      final FittedText cached = entries.get(key);
+      if (cached != null) {
+        hitCount.increment();
+        return cached;
+      }
+    }
+    missCount.increment();
+    final FittedText fittedText =
+        findFittingFont(
+            key.getText(),
+            key.getMaxWidth(),
+            key.getMaxHeight(),
+            key.getBaseFont(),
+            key.getFontRenderContext());
+    synchronized (entries) {
+      entries.put(
+          new LayoutKey(
+              key.getText(),
+              key.getBaseFont(),
+              key.getMaxWidth(),
+              key.getMaxHeight(),
+              key.getFontRenderContext()),
+          fittedText);
+    }
+    return fittedText;
+  }
+
+  private static FittedText findFittingFont(
+      final String text,
+      final double maxWidth,
+      final double maxHeight,
+      final Font fontBefore,
+      final FontRenderContext fontRenderContext) {
+    float candidateSize = fontBefore.getSize2D();
+    while (candidateSize > 1) {
+      Font currentFont = fontBefore.deriveFont(candidateSize);
+      final Rectangle2D stringBounds = currentFont.getStringBounds(text, fontRenderContext);
+      if (!(stringBounds.getWidth() > maxWidth) && !(stringBounds.getHeight() > maxHeight))
+        return new FittedText(currentFont, stringBounds);
+      candidateSize = (float) (candidateSize * SHRINK_FACTOR);
+    }
+    return new FittedText(fontBefore, fontBefore.getStringBounds(text, fontRenderContext));
+  }
+
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  @Value
+  public static class FittedText {
+    private Font font;
+    private Rectangle2D stringBounds;
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class LayoutKey {
+    private String text;
+    private Font baseFont;
+    private double maxWidth;
+    private double maxHeight;
+    private FontRenderContext fontRenderContext;
+  }
+}
@@ -0,0 +1,15 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class ConnectionSettings {
+  /** Upper bound of the delay before the first reconnect, doubled on every failed attempt. */
+  private Duration initialBackoff = Duration.ofMillis(100);
+  private Duration maxBackoff = Duration.ofSeconds(30);
+  private Duration connectTimeout = Duration.ofSeconds(5);
+  /** Silence after which a broker connection counts as lost. */
+  private Duration keepAlive = Duration.ofSeconds(10);
+}
@@ -0,0 +1,20 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+@Data
+public class DispatchSettings {
+  /** Threads delivering inbound messages to listeners, 0 for one per available processor. */
+  private int threads = 0;
+  /** Messages waiting per thread, further messages are handled by the overflow strategy. */
+  private int queueCapacity = 1000;
+  /** Message to drop when the queue of a thread is full, the connection is never held back. */
+  private DispatchOverflow overflow = DispatchOverflow.DROP_NEWEST;
+
+  public enum DispatchOverflow {
+    /** The arriving message. */
+    DROP_NEWEST,
+    /** The oldest waiting message of the thread, to make room for the arriving one. */
+    DROP_OLDEST
+  }
+}
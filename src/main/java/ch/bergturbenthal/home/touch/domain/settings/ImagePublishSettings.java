@@ -0,0 +1,12 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class ImagePublishSettings {
+  private boolean deltaEnabled = false;
+  private int tileSize = 16;
+  private Duration keyframeInterval = Duration.ofSeconds(30);
+}
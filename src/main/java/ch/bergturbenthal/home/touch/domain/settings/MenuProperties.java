@@ -13,6 +13,8 @@ import java.util.Map;
 @Data
 public class MenuProperties {
   private MqttEndpoint                 mqtt = new MqttEndpoint();
+  private RendererSettings             renderer = new RendererSettings();
+  private ImagePublishSettings         imagePublish = new ImagePublishSettings();
   private Map<String, DisplaySettings> displaySettings;
   private List<Screen>                 screens;
 }
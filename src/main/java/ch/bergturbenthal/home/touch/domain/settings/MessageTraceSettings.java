@@ -0,0 +1,16 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class MessageTraceSettings {
+  /** Topic filters of the messages to log, nothing is logged if empty. */
+  private List<String> topics = new ArrayList<>();
+  /** Fraction of the matching messages to log. */
+  private double sampleRate = 1.0;
+  /** Payload bytes to include in a log line, the rest is only counted. */
+  private int maxPayloadLength = 256;
+}
@@ -2,8 +2,24 @@ package ch.bergturbenthal.home.touch.domain.settings;
 
 import lombok.Data;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 public class MqttEndpoint {
   private String service = "mqtt";
   private String clientId = "TouchMenuProcessor";
+  private ConnectionSettings connection = new ConnectionSettings();
+  private MessageTraceSettings trace = new MessageTraceSettings();
+  /** Policies of outbound messages, the first one matching the topic applies. */
+  private List<PublishPolicy> publishPolicies = new ArrayList<>();
+  /** Brokers to send outbound messages to when connected to more than one. */
+  private PublishStrategy publishStrategy = PublishStrategy.ALL;
+  private RetainedStoreSettings retained = new RetainedStoreSettings();
+  private DispatchSettings dispatch = new DispatchSettings();
+  private SubscriptionSettings subscriptions = new SubscriptionSettings();
+  private RecordingSettings recording = new RecordingSettings();
+  /** Copies of a message arriving over another broker within this time are dropped. */
+  private Duration dedupWindow = Duration.ofMillis(500);
 }
@@ -0,0 +1,22 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/** Outbound handling of the messages published to topics matching {@link #topic}. */
+@Data
+public class PublishPolicy {
+  /** Topic filter, may contain {@code +} and {@code #} wildcards. */
+  private String topic = "#";
+  /** Overrides the QoS of the messages if set. */
+  private Integer qos;
+  /** Overrides the retained flag of the messages if set. */
+  private Boolean retained;
+  /** Keep only the latest message while the topic is busy instead of sending every message. */
+  private boolean coalesce = true;
+  /** Minimum time between two messages sent to the same topic. */
+  private Duration coalesceWindow = Duration.ZERO;
+  /** Messages of a topic sent but not yet acknowledged before further messages are held back. */
+  private int maxInFlight = 1;
+}
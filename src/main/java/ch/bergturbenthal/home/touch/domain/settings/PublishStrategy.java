@@ -0,0 +1,10 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+public enum PublishStrategy {
+  /** Every message to every broker. */
+  ALL,
+  /** Every message to the connected broker with the lowest address. */
+  PRIMARY_WITH_FAILOVER,
+  /** The messages of a topic to one of the connected brokers, chosen by the topic. */
+  CONSISTENT_HASH_BY_TOPIC
+}
@@ -0,0 +1,12 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+
+@Data
+public class RecordingSettings {
+  /** File to record all inbound messages to, disabled if not set. */
+  private String file;
+  /** Recording stops when the file reaches this size. */
+  private DataSize maxSize = DataSize.ofGigabytes(1);
+}
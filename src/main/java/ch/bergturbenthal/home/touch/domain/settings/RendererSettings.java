@@ -0,0 +1,16 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class RendererSettings {
+  private int textLayoutCacheSize = 512;
+  private int spriteAtlasSize = 256;
+  private int pngCompressionLevel = 4;
+  private int pngEncoderPoolSize = 4;
+  private boolean renderInDeviceOrientation = true;
+  private Duration minFrameInterval = Duration.ofMillis(50);
+  private int renderThreads = 2;
+}
@@ -0,0 +1,10 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+
+@Data
+public class RetainedQuota {
+  private String prefix;
+  private DataSize maxSize;
+}
@@ -0,0 +1,11 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+@Data
+public class RetainedReplaySettings {
+  /** Messages republished to a broker after a (re)connect per second, unlimited if 0. */
+  private int messagesPerSecond = 200;
+  /** Republished messages awaiting their acknowledgement per broker. */
+  private int maxInFlight = 5;
+}
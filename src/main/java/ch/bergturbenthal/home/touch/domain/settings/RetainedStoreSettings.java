@@ -0,0 +1,22 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class RetainedStoreSettings {
+  /** Budget of all retained messages, topics and payloads. */
+  private DataSize maxSize = DataSize.ofMegabytes(16);
+  /** Budgets of topic prefixes, the first matching prefix applies. */
+  private List<RetainedQuota> quotas = new ArrayList<>();
+  /** Keep payloads in direct buffers outside the heap. */
+  private boolean offHeap = false;
+  /** File to keep the retained messages in across restarts, disabled if not set. */
+  private String snapshotFile;
+  private Duration snapshotInterval = Duration.ofSeconds(30);
+  private RetainedReplaySettings replay = new RetainedReplaySettings();
+}
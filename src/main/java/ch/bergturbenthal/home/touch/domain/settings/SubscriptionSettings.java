@@ -0,0 +1,13 @@
+package ch.bergturbenthal.home.touch.domain.settings;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+@Data
+public class SubscriptionSettings {
+  /** Time to collect new subscriptions into one SUBSCRIBE per broker. */
+  private Duration batchWindow = Duration.ofMillis(20);
+  /** Time a topic without listeners stays subscribed in case it is requested again. */
+  private Duration unsubscribeGrace = Duration.ofSeconds(5);
+}
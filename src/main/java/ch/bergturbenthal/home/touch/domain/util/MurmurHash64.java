@@ -0,0 +1,42 @@
+package ch.bergturbenthal.home.touch.domain.util;
+
+/** MurmurHash64A, a fast non-cryptographic 64 bit hash. */
+public class MurmurHash64 {
+  private static final long SEED = 0xe17a1465L;
+  private static final long M = 0xc6a4a7935bd1e995L;
+  private static final int R = 47;
+
+  public static long hash(final byte[] data) {
+    return hash(data, 0, data.length);
+  }
+
+  public static long hash(final byte[] data, final int offset, final int length) {
+    long h = SEED ^ (length * M);
+    final int end = offset + length;
+    final int blockEnd = offset + (length & ~7);
+    for (int i = offset; i < blockEnd; i += 8) {
+      long k =
+          (data[i] & 0xffL)
+              | (data[i + 1] & 0xffL) << 8
+              | (data[i + 2] & 0xffL) << 16
+              | (data[i + 3] & 0xffL) << 24
+              | (data[i + 4] & 0xffL) << 32
+              | (data[i + 5] & 0xffL) << 40
+              | (data[i + 6] & 0xffL) << 48
+              | (data[i + 7] & 0xffL) << 56;
+      k *= M;
+      k ^= k >>> R;
+      k *= M;
+      h ^= k;
+      h *= M;
+    }
+    if (blockEnd < end) {
+      for (int i = end - 1; i >= blockEnd; i--) h ^= (data[i] & 0xffL) << (8 * (i - blockEnd));
+      h *= M;
+    }
+    h ^= h >>> R;
+    h *= M;
+    h ^= h >>> R;
+    return h;
+  }
+}
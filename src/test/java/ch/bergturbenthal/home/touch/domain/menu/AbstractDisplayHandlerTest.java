@@ -0,0 +1,27 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.menu.settings.Type;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.function.Function;
+
+public class AbstractDisplayHandlerTest {
+  private final AbstractDisplayHandler handler =
+      new AbstractDisplayHandler(null, new ObjectMapper(), null, null, null);
+
+  @Test
+  public void testStringFormat() {
+    final Function<String, String> formatter =
+        handler.createDisplayFormatter(Type.STRING, "{0} %");
+    Assert.assertEquals("21.5 %", formatter.apply("21.5"));
+    Assert.assertEquals("warm %", formatter.apply("warm"));
+  }
+
+  @Test
+  public void testWithoutFormat() {
+    Assert.assertEquals("21.5", handler.createDisplayFormatter(Type.STRING, null).apply("21.5"));
+    Assert.assertEquals("21.5", handler.createDisplayFormatter(null, "{0} %").apply("21.5"));
+  }
+}
@@ -0,0 +1,145 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.RecordingMqttClient;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRendererFactory;
+import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FramePublisherTest {
+  private final List<String> publishedTopics = new ArrayList<>();
+  private final List<MqttMessage> publishedMessages = new ArrayList<>();
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final RecordingMqttClient mqttClient =
+      new RecordingMqttClient(
+          (topic, message) -> {
+            publishedTopics.add(topic);
+            publishedMessages.add(message);
+          });
+  private final DisplayRendererFactory rendererFactory =
+      new DisplayRendererFactory(new MenuProperties(), meterRegistry, new DefaultResourceLoader());
+
+  @After
+  public void closeRenderers() {
+    rendererFactory.close();
+  }
+
+  @Test
+  public void testDeltaPublishing() throws IOException {
+    final MenuProperties properties = new MenuProperties();
+    properties.getImagePublish().setDeltaEnabled(true);
+    final FramePublisher framePublisher =
+        new FramePublisher(mqttClient, mapper, properties, meterRegistry);
+    final DisplaySettings settings = new DisplaySettings();
+    settings.setOrientation(DisplaySettings.DisplayOrientation.DEFAULT);
+    final DisplayRenderer renderer = rendererFactory.createRenderer(settings);
+    final DisplayRenderer.ZoneAddress zone =
+        DisplayRenderer.ZoneAddress.builder().column(0).row(0).build();
+
+    renderer.clear();
+    renderer.drawText(
+        "1", zone, DisplayRenderer.VerticalAlignment.TOP, DisplayRenderer.HorizontalAlignment.LEFT);
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals("screen/image", publishedTopics.get(0));
+    Assert.assertTrue(publishedMessages.get(0).isRetained());
+
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals(1, publishedTopics.size());
+    Assert.assertEquals(1, suppressedFrames(), 0);
+
+    renderer.clear();
+    renderer.drawText(
+        "2", zone, DisplayRenderer.VerticalAlignment.TOP, DisplayRenderer.HorizontalAlignment.LEFT);
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals("screen/imageDelta", publishedTopics.get(1));
+    final JsonNode delta = mapper.readTree(publishedMessages.get(1).getPayload());
+    Assert.assertEquals(1, delta.get("sequence").asLong());
+    Assert.assertTrue(delta.get("tiles").size() > 0);
+    for (JsonNode tile : delta.get("tiles")) {
+      Assert.assertTrue(tile.get("x").asInt() < settings.getWidth() / 2);
+      Assert.assertTrue(tile.get("y").asInt() < settings.getHeight() / 5);
+    }
+
+    framePublisher.requestKeyframe("screen");
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals("screen/image", publishedTopics.get(2));
+  }
+
+  @Test
+  public void testSkipUnchangedFrames() throws IOException {
+    final FramePublisher framePublisher =
+        new FramePublisher(mqttClient, mapper, new MenuProperties(), meterRegistry);
+    final DisplaySettings settings = new DisplaySettings();
+    settings.setOrientation(DisplaySettings.DisplayOrientation.DEFAULT);
+    final DisplayRenderer renderer = rendererFactory.createRenderer(settings);
+    final DisplayRenderer.ZoneAddress zone =
+        DisplayRenderer.ZoneAddress.builder().column(0).row(0).build();
+
+    renderer.clear();
+    renderer.drawText(
+        "1", zone, DisplayRenderer.VerticalAlignment.TOP, DisplayRenderer.HorizontalAlignment.LEFT);
+    framePublisher.publish(renderer, "screen");
+    framePublisher.publish(renderer, "screen");
+    framePublisher.publish(renderer, "other");
+    Assert.assertEquals(2, publishedTopics.size());
+    Assert.assertEquals("other/image", publishedTopics.get(1));
+    Assert.assertEquals(1, suppressedFrames(), 0);
+
+    renderer.clear();
+    renderer.drawText(
+        "2", zone, DisplayRenderer.VerticalAlignment.TOP, DisplayRenderer.HorizontalAlignment.LEFT);
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals(3, publishedTopics.size());
+    Assert.assertEquals("screen/image", publishedTopics.get(2));
+  }
+
+  @Test
+  public void testRepublishAfterFailure() throws IOException {
+    final MenuProperties properties = new MenuProperties();
+    properties.getImagePublish().setDeltaEnabled(true);
+    final FramePublisher framePublisher =
+        new FramePublisher(mqttClient, mapper, properties, meterRegistry);
+    final DisplaySettings settings = new DisplaySettings();
+    settings.setOrientation(DisplaySettings.DisplayOrientation.DEFAULT);
+    final DisplayRenderer renderer = rendererFactory.createRenderer(settings);
+    final DisplayRenderer.ZoneAddress zone =
+        DisplayRenderer.ZoneAddress.builder().column(0).row(0).build();
+
+    renderer.clear();
+    framePublisher.publish(renderer, "screen");
+    renderer.drawText(
+        "1", zone, DisplayRenderer.VerticalAlignment.TOP, DisplayRenderer.HorizontalAlignment.LEFT);
+    mqttClient.setFailing(true);
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals("screen/imageDelta", publishedTopics.get(1));
+
+    // the same frame again is not suppressed but sent as a keyframe
+    mqttClient.setFailing(false);
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals(3, publishedTopics.size());
+    Assert.assertEquals("screen/image", publishedTopics.get(2));
+    Assert.assertEquals(0, suppressedFrames(), 0);
+
+    framePublisher.publish(renderer, "screen");
+    Assert.assertEquals(3, publishedTopics.size());
+    Assert.assertEquals(1, suppressedFrames(), 0);
+  }
+
+  private double suppressedFrames() {
+    return meterRegistry.counter("touchmenu.frames", "result", "suppressed").count();
+  }
+}
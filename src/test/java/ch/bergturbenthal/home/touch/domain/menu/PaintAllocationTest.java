@@ -0,0 +1,98 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.RecordingMqttClient;
+import ch.bergturbenthal.home.touch.domain.renderer.DisplayRenderer;
+import ch.bergturbenthal.home.touch.domain.renderer.PngEncoderPool;
+import ch.bergturbenthal.home.touch.domain.renderer.Shapes;
+import ch.bergturbenthal.home.touch.domain.renderer.SpriteAtlas;
+import ch.bergturbenthal.home.touch.domain.renderer.TextLayoutCache;
+import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.management.ThreadMXBean;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+public class PaintAllocationTest {
+  private static final int WARMUP_FRAMES = 2000;
+  private static final int MEASURED_FRAMES = 200;
+  // the MqttMessage itself, the reactive publish, the ByteBuffer views of the Base64 encoder and
+  // small temporaries inside Java2D
+  private static final long ALLOWED_OVERHEAD_PER_FRAME = 384;
+  private long payloadBytes;
+
+  @Test
+  public void testSteadyStateAllocation() throws IOException {
+    // allocation counting is an extension of the MXBean of HotSpot and OpenJ9
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+    final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+    final DisplaySettings settings = new DisplaySettings();
+    final DisplayRenderer renderer =
+        new DisplayRenderer(
+            settings,
+            new TextLayoutCache(16),
+            new SpriteAtlas(16, new DefaultResourceLoader()),
+            new PngEncoderPool(4, 1),
+            true);
+    final FramePublisher framePublisher =
+        new FramePublisher(
+            new RecordingMqttClient(
+                // the Base64 payload and the copy MqttMessage keeps of it, each with array header
+                (topic, message) -> payloadBytes += 2 * (message.getPayload().length + 16)),
+            new ObjectMapper(),
+            new MenuProperties(),
+            new SimpleMeterRegistry());
+    final DisplayRenderer.ZoneAddress textZone =
+        DisplayRenderer.ZoneAddress.builder().row(1).column(0).colSpan(2).build();
+    final DisplayRenderer.ZoneAddress upZone =
+        DisplayRenderer.ZoneAddress.builder().row(0).column(0).build();
+    final DisplayRenderer.ZoneAddress downZone =
+        DisplayRenderer.ZoneAddress.builder().row(4).column(1).build();
+    final List<DisplayEntry> displayList =
+        Arrays.asList(
+            new ShapeButtonDisplayEntry(Shapes.UP_ARROW, renderer, upZone, () -> {}),
+            new ShapeButtonDisplayEntry(Shapes.DOWN_ARROW, renderer, downZone, () -> {}));
+    final String[] values = {"21.5", "22.0"};
+
+    for (int i = 0; i < WARMUP_FRAMES; i++)
+      paint(renderer, framePublisher, displayList, values[i % 2], textZone);
+    payloadBytes = 0;
+    final long threadId = Thread.currentThread().getId();
+    final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_FRAMES; i++)
+      paint(renderer, framePublisher, displayList, values[i % 2], textZone);
+    final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    final long allocatedPerFrame = (allocated - payloadBytes) / MEASURED_FRAMES;
+    Assert.assertTrue(
+        "Allocated " + allocatedPerFrame + " bytes per frame besides the payload",
+        allocatedPerFrame <= ALLOWED_OVERHEAD_PER_FRAME);
+  }
+
+  private void paint(
+      final DisplayRenderer renderer,
+      final FramePublisher framePublisher,
+      final List<DisplayEntry> displayList,
+      final String value,
+      final DisplayRenderer.ZoneAddress textZone)
+      throws IOException {
+    renderer.clear();
+    for (DisplayEntry entry : displayList) entry.draw();
+    renderer.drawText(
+        value,
+        textZone,
+        DisplayRenderer.VerticalAlignment.MIDDLE,
+        DisplayRenderer.HorizontalAlignment.CENTER);
+    framePublisher.publish(renderer, "screen");
+  }
+}
@@ -0,0 +1,84 @@
+package ch.bergturbenthal.home.touch.domain.menu;
+
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ScreenRefreshTest {
+  private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
+  private final AtomicInteger renderCount = new AtomicInteger();
+
+  @After
+  public void shutdown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testCoalesceBurst() throws InterruptedException {
+    final ScreenRefresh refresh = createRefresh();
+    refresh.request();
+    Assert.assertEquals(0, renderCount.get());
+    refresh.start();
+    Assert.assertEquals(1, renderCount.get());
+    for (int i = 0; i < 100; i++) refresh.request();
+    Assert.assertEquals(1, renderCount.get());
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(INTERVAL * 2));
+    Assert.assertEquals(2, renderCount.get());
+  }
+
+  @Test
+  public void testImmediateRequest() throws InterruptedException {
+    final ScreenRefresh refresh = createRefresh();
+    refresh.start();
+    refresh.request();
+    refresh.requestImmediate();
+    Assert.assertEquals(2, renderCount.get());
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(INTERVAL * 2));
+    Assert.assertEquals(2, renderCount.get());
+  }
+
+  @Test
+  public void testNoRenderAfterDispose() throws InterruptedException {
+    final ScreenRefresh refresh = createRefresh();
+    refresh.start();
+    refresh.request();
+    refresh.dispose();
+    refresh.requestImmediate();
+    Thread.sleep(TimeUnit.NANOSECONDS.toMillis(INTERVAL * 2));
+    Assert.assertEquals(1, renderCount.get());
+  }
+
+  @Test
+  public void testDeferredRenderOnRenderThread() throws InterruptedException {
+    final MenuProperties properties = new MenuProperties();
+    properties.getRenderer().setMinFrameInterval(Duration.ofNanos(INTERVAL));
+    final RenderScheduler renderScheduler = new RenderScheduler(properties);
+    try {
+      final List<String> renderThreads = Collections.synchronizedList(new ArrayList<>());
+      final ScreenRefresh refresh =
+          renderScheduler.createRefresh(() -> renderThreads.add(Thread.currentThread().getName()));
+      refresh.start();
+      refresh.request();
+      Thread.sleep(TimeUnit.NANOSECONDS.toMillis(INTERVAL * 2));
+      Assert.assertEquals(2, renderThreads.size());
+      Assert.assertTrue(renderThreads.get(1), renderThreads.get(1).startsWith("render-"));
+    } finally {
+      renderScheduler.close();
+    }
+  }
+
+  private ScreenRefresh createRefresh() {
+    return new ScreenRefresh(renderCount::incrementAndGet, executorService, INTERVAL);
+  }
+}
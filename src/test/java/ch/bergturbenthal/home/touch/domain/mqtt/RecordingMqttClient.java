@@ -0,0 +1,52 @@
+package ch.bergturbenthal.home.touch.domain.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Stand-in for a broker connection in tests: hands every published message to a listener and never
+ * receives a message. Publishing fails while {@link #setFailing(boolean) failing} is set.
+ */
+public class RecordingMqttClient implements MqttClient {
+  private final BiConsumer<String, MqttMessage> publishListener;
+  private volatile boolean failing;
+
+  public RecordingMqttClient(final BiConsumer<String, MqttMessage> publishListener) {
+    this.publishListener = publishListener;
+  }
+
+  public void setFailing(final boolean failing) {
+    this.failing = failing;
+  }
+
+  @Override
+  public Flux<MqttWireMessage> publish(final String topic, final MqttMessage message) {
+    publishListener.accept(topic, message);
+    if (failing) return Flux.error(new IOException("Broker not reachable"));
+    return Flux.empty();
+  }
+
+  @Override
+  public Flux<ReceivedMqttMessage> listenTopic(
+      final String topic, final OverflowPolicy overflowPolicy) {
+    return Flux.never();
+  }
+
+  @Override
+  public void send(final String topic, final MqttMessage message) {
+    publish(topic, message);
+  }
+
+  @Override
+  public void registerTopic(
+      final String topic,
+      final OverflowPolicy overflowPolicy,
+      final Consumer<ReceivedMqttMessage> mqttMessageConsumer,
+      final Consumer<Disposable> disposableConsumer) {}
+}
@@ -0,0 +1,397 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.broker;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.impl.TopicTrie;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.simple.SimpleDiscoveryClient;
+import org.springframework.cloud.client.discovery.simple.SimpleDiscoveryProperties;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Minimal MQTT 3.1.1 broker on the loopback interface, as stand-in for a real broker in tests and
+ * benchmarks. Supports QoS 0 and 1, retained messages and wildcard subscriptions, QoS 2 publishes
+ * are accepted and delivered with QoS 1. There are no persistent sessions, no will messages and no
+ * redelivery. Every packet sent by the broker can be delayed by a configurable latency to simulate
+ * a slow broker, the order of the packets to one client is kept.
+ */
+@Slf4j
+public class EmbeddedMqttBroker implements Closeable {
+  private static final int CONNECT = 1;
+  private static final int PUBLISH = 3;
+  private static final int PUBACK = 4;
+  private static final int PUBREC = 5;
+  private static final int PUBREL = 6;
+  private static final int SUBSCRIBE = 8;
+  private static final int UNSUBSCRIBE = 10;
+  private static final int PINGREQ = 12;
+  private static final int DISCONNECT = 14;
+
+  private final ServerSocket serverSocket;
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final Map<String, Publication> retainedMessages = new ConcurrentHashMap<>();
+  private final AtomicLong receivedMessages = new AtomicLong();
+  private final AtomicLong deliveredMessages = new AtomicLong();
+  private final Map<String, BiConsumer<String, byte[]>> listeners = new ConcurrentHashMap<>();
+  private volatile long latency;
+  private volatile long jitter;
+
+  /** Starts a broker on a free port. */
+  public EmbeddedMqttBroker() throws IOException {
+    this(0);
+  }
+
+  public EmbeddedMqttBroker(final int port) throws IOException {
+    serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    final Thread acceptThread = new Thread(this::accept, "mqtt-broker-" + getPort());
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public URI getUri() {
+    return URI.create("tcp://" + serverSocket.getInetAddress().getHostAddress() + ":" + getPort());
+  }
+
+  /** Discovery client returning this broker as the only instance of {@code service}. */
+  public DiscoveryClient discoveryClient(final String service) {
+    final SimpleDiscoveryProperties properties = new SimpleDiscoveryProperties();
+    final SimpleDiscoveryProperties.SimpleServiceInstance instance =
+        new SimpleDiscoveryProperties.SimpleServiceInstance(getUri());
+    properties.getInstances().put(service, Collections.singletonList(instance));
+    return new SimpleDiscoveryClient(properties);
+  }
+
+  /** Property registering this broker in the simple discovery client of a Spring context. */
+  public String discoveryProperty(final String service) {
+    return "spring.cloud.discovery.client.simple.instances." + service + "[0].uri=" + getUri();
+  }
+
+  /** Delay of every packet the broker sends. */
+  public void setLatency(final Duration latency) {
+    this.latency = latency.toNanos();
+  }
+
+  /** Random additional delay up to this value, the order of packets is kept nevertheless. */
+  public void setJitter(final Duration jitter) {
+    this.jitter = jitter.toNanos();
+  }
+
+  /** Publishes a message as if a client sent it. */
+  public void publish(
+      final String topic, final byte[] payload, final int qos, final boolean retained) {
+    route(new Publication(topic, payload, Math.min(qos, 1)), retained);
+  }
+
+  /**
+   * Calls {@code listener} with every message published to a topic matching {@code filter}, on the
+   * thread receiving the message. Replaces a previous listener of the same filter.
+   */
+  public void setListener(final String filter, final BiConsumer<String, byte[]> listener) {
+    listeners.put(filter, listener);
+  }
+
+  public byte[] getRetained(final String topic) {
+    final Publication publication = retainedMessages.get(topic);
+    return publication == null ? null : publication.getPayload();
+  }
+
+  /** Whether any client subscribed to exactly {@code filter}. */
+  public boolean hasSubscription(final String filter) {
+    for (Session session : sessions.values())
+      if (session.subscriptions.containsKey(filter)) return true;
+    return false;
+  }
+
+  public int getClientCount() {
+    return sessions.size();
+  }
+
+  public long getReceivedMessages() {
+    return receivedMessages.get();
+  }
+
+  public long getDeliveredMessages() {
+    return deliveredMessages.get();
+  }
+
+  /** Drops all client connections as a crashing broker would, the broker stays available. */
+  public void disconnectClients() {
+    for (Session session : sessions.values()) session.close();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Session session : sessions.values()) session.close();
+  }
+
+  private void accept() {
+    while (!serverSocket.isClosed()) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        final Session session = new Session(socket);
+        final Thread thread = new Thread(session::run, "mqtt-broker-session");
+        thread.setDaemon(true);
+        thread.start();
+      } catch (IOException e) {
+        if (!serverSocket.isClosed()) log.warn("Cannot accept connection", e);
+      }
+    }
+  }
+
+  private void route(final Publication publication, final boolean retained) {
+    receivedMessages.incrementAndGet();
+    if (retained) {
+      if (publication.getPayload().length == 0) retainedMessages.remove(publication.getTopic());
+      else retainedMessages.put(publication.getTopic(), publication);
+    }
+    for (Map.Entry<String, BiConsumer<String, byte[]>> listener : listeners.entrySet())
+      if (TopicTrie.matches(listener.getKey(), publication.getTopic()))
+        listener.getValue().accept(publication.getTopic(), publication.getPayload());
+    for (Session session : sessions.values()) {
+      int grantedQos = -1;
+      for (Map.Entry<String, Integer> subscription : session.subscriptions.entrySet())
+        if (TopicTrie.matches(subscription.getKey(), publication.getTopic()))
+          grantedQos = Math.max(grantedQos, subscription.getValue());
+      if (grantedQos >= 0)
+        session.deliver(publication, Math.min(grantedQos, publication.getQos()), false);
+    }
+  }
+
+  @Value
+  private static class Publication {
+    private String topic;
+    private byte[] payload;
+    private int qos;
+  }
+
+  private class Session {
+    private final Socket socket;
+    private final DataInputStream input;
+    private final Map<String, Integer> subscriptions = new ConcurrentHashMap<>();
+    private final BlockingQueue<Packet> outbound = new LinkedBlockingQueue<>();
+    private String clientId;
+    private Thread writer;
+    private int nextPacketId;
+    private long lastDue;
+
+    Session(final Socket socket) throws IOException {
+      this.socket = socket;
+      input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    void run() {
+      try {
+        if (readFixedHeader() >> 4 != CONNECT) throw new IOException("Expected CONNECT");
+        final DataInputStream connect = readBody();
+        readString(connect);
+        connect.readUnsignedByte();
+        connect.readUnsignedByte();
+        connect.readUnsignedShort();
+        clientId = readString(connect);
+        final Session previous = sessions.put(clientId, this);
+        if (previous != null) previous.close();
+        writer = new Thread(this::write, "mqtt-broker-" + clientId);
+        writer.setDaemon(true);
+        writer.start();
+        send(0x20, new byte[] {0, 0});
+        while (true) handlePacket(readFixedHeader());
+      } catch (EOFException e) {
+        // disconnected
+      } catch (IOException e) {
+        if (!socket.isClosed()) log.debug("Connection of " + clientId + " failed", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        close();
+      }
+    }
+
+    private void handlePacket(final int header) throws IOException, InterruptedException {
+      final DataInputStream body = readBody();
+      switch (header >> 4) {
+        case PUBLISH:
+          final int qos = (header >> 1) & 3;
+          final String topic = readString(body);
+          final int packetId = qos > 0 ? body.readUnsignedShort() : 0;
+          final byte[] payload = new byte[body.available()];
+          body.readFully(payload);
+          // stored and routed before the acknowledgement, as a publisher may rely on it
+          route(new Publication(topic, payload, Math.min(qos, 1)), (header & 1) != 0);
+          if (qos == 1) send(PUBACK << 4, packetId(packetId));
+          else if (qos == 2) send(PUBREC << 4, packetId(packetId));
+          break;
+        case PUBREL:
+          send(0x70, packetId(body.readUnsignedShort()));
+          break;
+        case SUBSCRIBE:
+          final int subscribeId = body.readUnsignedShort();
+          final ByteArrayOutputStream granted = new ByteArrayOutputStream();
+          granted.write(packetId(subscribeId));
+          final Map<String, Integer> newSubscriptions = new LinkedHashMap<>();
+          while (body.available() > 0) {
+            final String filter = readString(body);
+            final int grantedQos = Math.min(body.readUnsignedByte(), 1);
+            subscriptions.put(filter, grantedQos);
+            newSubscriptions.put(filter, grantedQos);
+            granted.write(grantedQos);
+          }
+          send(0x90, granted.toByteArray());
+          // only the filters of this packet get the retained messages, as any broker does it
+          for (Publication retained : retainedMessages.values())
+            for (Map.Entry<String, Integer> subscription : newSubscriptions.entrySet())
+              if (TopicTrie.matches(subscription.getKey(), retained.getTopic())) {
+                deliver(retained, Math.min(subscription.getValue(), retained.getQos()), true);
+                break;
+              }
+          break;
+        case UNSUBSCRIBE:
+          final int unsubscribeId = body.readUnsignedShort();
+          while (body.available() > 0) subscriptions.remove(readString(body));
+          send(0xb0, packetId(unsubscribeId));
+          break;
+        case PINGREQ:
+          send(0xd0, new byte[0]);
+          break;
+        case DISCONNECT:
+          throw new EOFException();
+        default:
+          // PUBACK and PUBCOMP of messages to the client, nothing to do without redelivery
+      }
+    }
+
+    void deliver(final Publication publication, final int qos, final boolean retained) {
+      final ByteArrayOutputStream body = new ByteArrayOutputStream();
+      final byte[] topic = publication.getTopic().getBytes(StandardCharsets.UTF_8);
+      body.write(topic.length >> 8);
+      body.write(topic.length);
+      body.write(topic, 0, topic.length);
+      if (qos > 0) {
+        final int packetId;
+        synchronized (this) {
+          nextPacketId = nextPacketId % 0xffff + 1;
+          packetId = nextPacketId;
+        }
+        body.write(packetId(packetId), 0, 2);
+      }
+      body.write(publication.getPayload(), 0, publication.getPayload().length);
+      try {
+        send(PUBLISH << 4 | qos << 1 | (retained ? 1 : 0), body.toByteArray());
+        deliveredMessages.incrementAndGet();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void send(final int header, final byte[] body) throws InterruptedException {
+      final long currentJitter = jitter;
+      final long delay =
+          latency + (currentJitter > 0 ? ThreadLocalRandom.current().nextLong(currentJitter) : 0);
+      synchronized (outbound) {
+        final long due = Math.max(System.nanoTime() + delay, lastDue);
+        lastDue = due;
+        outbound.put(new Packet(header, body, due));
+      }
+    }
+
+    private void write() {
+      try {
+        final OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+        while (!socket.isClosed()) {
+          final Packet packet = outbound.take();
+          final long wait = packet.getDue() - System.nanoTime();
+          if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+          output.write(packet.getHeader());
+          int length = packet.getBody().length;
+          do {
+            output.write((length & 0x7f) | (length > 0x7f ? 0x80 : 0));
+            length >>= 7;
+          } while (length > 0);
+          output.write(packet.getBody());
+          if (outbound.isEmpty()) output.flush();
+        }
+      } catch (IOException e) {
+        close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private int readFixedHeader() throws IOException {
+      return input.readUnsignedByte();
+    }
+
+    private DataInputStream readBody() throws IOException {
+      int length = 0;
+      int shift = 0;
+      int digit;
+      do {
+        digit = input.readUnsignedByte();
+        length |= (digit & 0x7f) << shift;
+        shift += 7;
+      } while ((digit & 0x80) != 0);
+      final byte[] body = new byte[length];
+      input.readFully(body);
+      return new DataInputStream(new ByteArrayInputStream(body));
+    }
+
+    void close() {
+      if (clientId != null) sessions.remove(clientId, this);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        log.debug("Cannot close connection of " + clientId, e);
+      }
+      if (writer != null) writer.interrupt();
+    }
+  }
+
+  private static String readString(final DataInputStream input) throws IOException {
+    final byte[] data = new byte[input.readUnsignedShort()];
+    input.readFully(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  private static byte[] packetId(final int packetId) {
+    return new byte[] {(byte) (packetId >> 8), (byte) packetId};
+  }
+
+  @Value
+  private static class Packet {
+    private int header;
+    private byte[] body;
+    private long due;
+  }
+}
@@ -0,0 +1,109 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.broker;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient;
+import ch.bergturbenthal.home.touch.domain.mqtt.impl.PahoMqttClient;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.Disposable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class EmbeddedMqttBrokerTest {
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+  private EmbeddedMqttBroker broker;
+  private PahoMqttClient client;
+
+  @Before
+  public void startBroker() throws Exception {
+    broker = new EmbeddedMqttBroker();
+    final MenuProperties properties = new MenuProperties();
+    properties.getMqtt().setClientId("broker-test");
+    client =
+        new PahoMqttClient(
+            properties,
+            broker.discoveryClient(properties.getMqtt().getService()),
+            executorService,
+            new SimpleMeterRegistry());
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    client.close();
+    broker.close();
+    executorService.shutdown();
+  }
+
+  @Test
+  public void testRetainedAndWildcardDelivery() throws Exception {
+    broker.publish("sensor/kitchen/temperature", "21.5".getBytes(), 1, true);
+    final CompletableFuture<List<String>> received =
+        client
+            .listenTopic("sensor/+/temperature")
+            .map(MqttClient.ReceivedMqttMessage::getPayloadAsString)
+            .take(2)
+            .collectList()
+            .toFuture();
+    awaitSubscription("sensor/+/temperature");
+    broker.publish("sensor/hall/temperature", "19.0".getBytes(), 0, false);
+    Assert.assertEquals(Arrays.asList("21.5", "19.0"), received.get(5, TimeUnit.SECONDS));
+
+    final MqttMessage message = new MqttMessage("on".getBytes());
+    message.setQos(1);
+    message.setRetained(true);
+    client.publish("light/kitchen/state", message).blockLast(Duration.ofSeconds(5));
+    Assert.assertEquals("on", new String(broker.getRetained("light/kitchen/state")));
+  }
+
+  @Test
+  public void testRetainedOnlyForNewFilters() throws Exception {
+    broker.publish("sensor/kitchen/temperature", "21.5".getBytes(), 1, true);
+    final List<String> received = new CopyOnWriteArrayList<>();
+    final Disposable sensors =
+        client
+            .listenTopic("sensor/#")
+            .map(MqttClient.ReceivedMqttMessage::getPayloadAsString)
+            .subscribe(received::add);
+    awaitSubscription("sensor/#");
+    final Disposable lights = client.listenTopic("light/#").subscribe();
+    awaitSubscription("light/#");
+    // the later SUBSCRIBE does not deliver the retained message of the first filter again
+    Thread.sleep(200);
+    Assert.assertEquals(Collections.singletonList("21.5"), received);
+    sensors.dispose();
+    lights.dispose();
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    final CompletableFuture<MqttClient.ReceivedMqttMessage> received =
+        client.listenTopic("screen/+/touch").next().toFuture();
+    awaitSubscription("screen/+/touch");
+    broker.setLatency(Duration.ofMillis(200));
+    final long start = System.nanoTime();
+    broker.publish("screen/kitchen/touch", "{}".getBytes(), 1, false);
+    received.get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+  }
+
+  private void awaitSubscription(final String filter) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!broker.hasSubscription(filter)) {
+      Assert.assertTrue("No subscription to " + filter, System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.broker.EmbeddedMqttBroker;
+import ch.bergturbenthal.home.touch.domain.settings.ConnectionSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class BrokerConnectionManagerTest {
+  @Test
+  public void testReconnectAfterConnectionLoss() throws Exception {
+    final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final Semaphore connected = new Semaphore(0);
+    final EmbeddedMqttBroker broker = new EmbeddedMqttBroker();
+    final BrokerConnectionManager manager =
+        new BrokerConnectionManager(
+            "reconnect-test",
+            new ConnectionSettings(),
+            executorService,
+            meterRegistry,
+            new BrokerConnectionManager.Handler() {
+              @Override
+              public void connected(final MqttAsyncClient client) {
+                connected.release();
+              }
+
+              @Override
+              public void messageArrived(
+                  final int source, final String topic, final MqttMessage message) {}
+            });
+    try {
+      manager.update(Collections.singletonList(new InetSocketAddress("127.0.0.1", broker.getPort())));
+      Assert.assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+
+      broker.disconnectClients();
+      // the backoff starts at 100ms, far below the polling interval of the discovery
+      Assert.assertTrue(connected.tryAcquire(5, TimeUnit.SECONDS));
+      Assert.assertEquals(1, meterRegistry.get("touchmenu.mqtt.reconnect").timer().count());
+      Assert.assertEquals(1, meterRegistry.get("touchmenu.mqtt.failover").timer().count());
+      Assert.assertEquals(
+          1, meterRegistry.get("touchmenu.mqtt.brokers.connected").gauge().value(), 0);
+
+      // a broker gone from discovery is kept while connected
+      manager.update(Collections.emptyList());
+      Assert.assertEquals(1, manager.clients().size());
+    } finally {
+      manager.close();
+      broker.close();
+      executorService.shutdown();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.PublishStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class BrokerSelectorTest {
+  private final Map<InetSocketAddress, String> brokers = new HashMap<>();
+  private final Set<String> connected = new HashSet<>();
+
+  public BrokerSelectorTest() {
+    for (String broker : new String[] {"mqtt-2", "mqtt-0", "mqtt-1"}) {
+      brokers.put(InetSocketAddress.createUnresolved(broker, 1883), broker);
+      connected.add(broker);
+    }
+  }
+
+  @Test
+  public void testPrimaryWithFailover() {
+    final BrokerSelector selector = new BrokerSelector(PublishStrategy.PRIMARY_WITH_FAILOVER);
+    Assert.assertEquals(Collections.singletonList("mqtt-0"), select(selector, "a/image"));
+    connected.remove("mqtt-0");
+    Assert.assertEquals(Collections.singletonList("mqtt-1"), select(selector, "a/image"));
+    connected.clear();
+    Assert.assertTrue(select(selector, "a/image").isEmpty());
+  }
+
+  @Test
+  public void testAll() {
+    final BrokerSelector selector = new BrokerSelector(PublishStrategy.ALL);
+    Assert.assertEquals(connected, new HashSet<>(select(selector, "a/image")));
+    connected.remove("mqtt-2");
+    Assert.assertEquals(connected, new HashSet<>(select(selector, "a/image")));
+  }
+
+  @Test
+  public void testConsistentHash() {
+    final BrokerSelector selector = new BrokerSelector(PublishStrategy.CONSISTENT_HASH_BY_TOPIC);
+    final Map<String, String> assignment = new HashMap<>();
+    for (int i = 0; i < 300; i++) {
+      final Collection<String> selected = select(selector, "screen/" + i + "/image");
+      Assert.assertEquals(1, selected.size());
+      assignment.put("screen/" + i + "/image", selected.iterator().next());
+    }
+    Assert.assertEquals(connected, new HashSet<>(assignment.values()));
+
+    connected.remove("mqtt-1");
+    assignment.forEach(
+        (topic, broker) -> {
+          final String selected = select(selector, topic).iterator().next();
+          if (broker.equals("mqtt-1")) Assert.assertNotEquals("mqtt-1", selected);
+          else Assert.assertEquals(broker, selected);
+        });
+  }
+
+  private Collection<String> select(final BrokerSelector selector, final String topic) {
+    return selector.select(topic, brokers, connected::contains);
+  }
+}
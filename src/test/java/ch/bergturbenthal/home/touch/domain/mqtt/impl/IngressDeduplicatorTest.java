@@ -0,0 +1,39 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class IngressDeduplicatorTest {
+  private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testDropCopiesOfOtherBrokers() {
+    final IngressDeduplicator deduplicator = new IngressDeduplicator(Duration.ofMillis(100));
+    final byte[] payload = "21.5".getBytes();
+    Assert.assertTrue(deduplicator.accept(0, "sensor/kitchen", payload, 0));
+    Assert.assertFalse(deduplicator.accept(1, "sensor/kitchen", payload, 5 * MILLIS));
+    Assert.assertTrue(deduplicator.accept(1, "sensor/hall", payload, 6 * MILLIS));
+    Assert.assertTrue(deduplicator.accept(1, "sensor/kitchen", "21.6".getBytes(), 7 * MILLIS));
+    // the same value again on the same broker is a new message, its copy is dropped again
+    Assert.assertTrue(deduplicator.accept(0, "sensor/kitchen", payload, 10 * MILLIS));
+    Assert.assertFalse(deduplicator.accept(1, "sensor/kitchen", payload, 12 * MILLIS));
+    // copies out of the window pass
+    Assert.assertTrue(deduplicator.accept(0, "sensor/hall", payload, 200 * MILLIS));
+  }
+
+  @Test
+  public void testRebuild() {
+    final IngressDeduplicator deduplicator = new IngressDeduplicator(Duration.ofMillis(100));
+    for (int i = 0; i < 100000; i++) {
+      final byte[] payload = Integer.toString(i).getBytes();
+      final long now = i * MILLIS / 10;
+      Assert.assertTrue(deduplicator.accept(0, "counter", payload, now));
+      Assert.assertFalse(deduplicator.accept(1, "counter", payload, now));
+    }
+    // only the last 100ms are kept
+    Assert.assertTrue(deduplicator.size() < 4096);
+  }
+}
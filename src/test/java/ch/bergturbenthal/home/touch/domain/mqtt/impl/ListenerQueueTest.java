@@ -0,0 +1,97 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.MqttClient.ReceivedMqttMessage;
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ListenerQueueTest {
+  private final Counter droppedMessages = new SimpleMeterRegistry().counter("dropped");
+  private final List<String> received = new ArrayList<>();
+  private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+  @Test
+  public void testLatest() {
+    final AtomicReference<ListenerQueue> queue = new AtomicReference<>();
+    final RequestingSubscriber subscriber = subscribe(queue, OverflowPolicy.latest());
+    queue.get().next(message("1"));
+    queue.get().next(message("2"));
+    queue.get().next(message("3"));
+    Assert.assertEquals(1, queue.get().depth());
+    Assert.assertEquals(2, droppedMessages.count(), 0);
+
+    subscriber.request(2);
+    Assert.assertEquals("[3]", received.toString());
+    queue.get().next(message("4"));
+    Assert.assertEquals("[3, 4]", received.toString());
+    Assert.assertEquals(0, queue.get().depth());
+  }
+
+  @Test
+  public void testError() {
+    final AtomicReference<ListenerQueue> queue = new AtomicReference<>();
+    subscribe(queue, OverflowPolicy.error(2));
+    queue.get().next(message("1"));
+    queue.get().next(message("2"));
+    Assert.assertNull(error.get());
+    queue.get().next(message("3"));
+    Assert.assertNotNull(error.get());
+    Assert.assertTrue(received.isEmpty());
+  }
+
+  private RequestingSubscriber subscribe(
+      final AtomicReference<ListenerQueue> queue, final OverflowPolicy policy) {
+    final RequestingSubscriber subscriber = new RequestingSubscriber();
+    Flux.<ReceivedMqttMessage>create(
+            sink -> queue.set(new ListenerQueue(sink, policy, droppedMessages)),
+            FluxSink.OverflowStrategy.IGNORE)
+        .subscribe(subscriber);
+    return subscriber;
+  }
+
+  private static ReceivedMqttMessage message(final String payload) {
+    final MqttMessage message = new MqttMessage(payload.getBytes());
+    return new ReceivedMqttMessage() {
+      @Override
+      public String getTopic() {
+        return "topic";
+      }
+
+      @Override
+      public MqttMessage getMessage() {
+        return message;
+      }
+
+      @Override
+      public String getPayloadAsString() {
+        return payload;
+      }
+    };
+  }
+
+  private class RequestingSubscriber extends BaseSubscriber<ReceivedMqttMessage> {
+    @Override
+    protected void hookOnSubscribe(final Subscription subscription) {}
+
+    @Override
+    protected void hookOnNext(final ReceivedMqttMessage value) {
+      received.add(value.getPayloadAsString());
+    }
+
+    @Override
+    protected void hookOnError(final Throwable throwable) {
+      error.set(throwable);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageRecorderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRecordAndRead() throws IOException {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("inbound.recording");
+    // the large payloads need more than one mapped region
+    final byte[] image = new byte[5 * 1024 * 1024];
+    image[image.length - 1] = 42;
+    try (MessageRecorder recorder = new MessageRecorder(file, Long.MAX_VALUE)) {
+      final MqttMessage config = new MqttMessage("defaultView: {}".getBytes());
+      config.setQos(1);
+      config.setRetained(true);
+      recorder.record("settings/menu/kitchen", config);
+      recorder.record("kitchen/image", new MqttMessage(image));
+      recorder.record("kitchen/image", new MqttMessage(image));
+      recorder.record("kitchen/touchPosition", new MqttMessage("{\"x\":3}".getBytes()));
+    }
+    final List<MessageRecording.RecordedMessage> messages = new ArrayList<>();
+    MessageRecording.read(file, messages::add);
+
+    Assert.assertEquals(4, messages.size());
+    Assert.assertEquals("settings/menu/kitchen", messages.get(0).getTopic());
+    Assert.assertEquals(1, messages.get(0).getQos());
+    Assert.assertTrue(messages.get(0).isRetained());
+    Assert.assertEquals(42, messages.get(2).getPayload()[image.length - 1]);
+    Assert.assertFalse(messages.get(2).isRetained());
+    Assert.assertEquals("{\"x\":3}", new String(messages.get(3).getPayload()));
+    for (int i = 1; i < messages.size(); i++)
+      Assert.assertTrue(messages.get(i).getNanos() >= messages.get(i - 1).getNanos());
+    Assert.assertEquals(
+        MessageRecording.HEADER_SIZE
+            + 4 * MessageRecording.RECORD_OVERHEAD
+            + "settings/menu/kitchen".length()
+            + "defaultView: {}".length()
+            + 2 * ("kitchen/image".length() + image.length)
+            + "kitchen/touchPosition".length()
+            + "{\"x\":3}".length(),
+        Files.size(file));
+  }
+
+  @Test
+  public void testFileStaysWithinMaxSize() throws IOException {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("bounded.recording");
+    final int maxBytes = 4096;
+    final byte[] payload = new byte[1000];
+    final int recordSize = MessageRecording.RECORD_OVERHEAD + "kitchen/image".length() + 1000;
+    try (MessageRecorder recorder = new MessageRecorder(file, maxBytes)) {
+      Assert.assertTrue(Files.size(file) <= maxBytes);
+      for (int i = 0; i < 10; i++) {
+        recorder.record("kitchen/image", new MqttMessage(payload));
+        Assert.assertTrue(Files.size(file) <= maxBytes);
+      }
+    }
+    final List<MessageRecording.RecordedMessage> messages = new ArrayList<>();
+    MessageRecording.read(file, messages::add);
+    Assert.assertEquals((maxBytes - MessageRecording.HEADER_SIZE) / recordSize, messages.size());
+    Assert.assertEquals(
+        MessageRecording.HEADER_SIZE + messages.size() * recordSize, Files.size(file));
+  }
+}
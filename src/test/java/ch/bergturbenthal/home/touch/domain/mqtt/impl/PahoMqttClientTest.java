@@ -0,0 +1,150 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.OverflowPolicy;
+import ch.bergturbenthal.home.touch.domain.mqtt.broker.EmbeddedMqttBroker;
+import ch.bergturbenthal.home.touch.domain.settings.MenuProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.discovery.simple.SimpleDiscoveryClient;
+import org.springframework.cloud.client.discovery.simple.SimpleDiscoveryProperties;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PahoMqttClientTest {
+  private static final int THREADS = 8;
+  private static final int LISTENERS_PER_THREAD = 2000;
+  private static final int TOPICS = 16;
+
+  @Test
+  public void testConcurrentListenerRegistration() throws Exception {
+    final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
+    final ExecutorService workers = Executors.newFixedThreadPool(THREADS + 1);
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final MenuProperties properties = new MenuProperties();
+    properties.getMqtt().setClientId("registration-test");
+    properties.getMqtt().getSubscriptions().setUnsubscribeGrace(Duration.ZERO);
+    try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker()) {
+      final PahoMqttClient client =
+          new PahoMqttClient(
+              properties,
+              broker.discoveryClient(properties.getMqtt().getService()),
+              executorService,
+              meterRegistry);
+      try {
+        // messages are dispatched while listeners come and go
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Future<?> dispatching =
+            workers.submit(
+                () -> {
+                  final MqttMessage message = new MqttMessage("value".getBytes());
+                  while (running.get())
+                    for (int i = 0; i < TOPICS; i++)
+                      client.dispatch("stress/" + i + "/value", message);
+                });
+        final List<Future<?>> registrations = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++)
+          registrations.add(
+              workers.submit(
+                  () -> {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    final Deque<Disposable> active = new ArrayDeque<>();
+                    for (int i = 0; i < LISTENERS_PER_THREAD; i++) {
+                      final String prefix = "stress/" + random.nextInt(TOPICS);
+                      final String filter = prefix + (random.nextBoolean() ? "/value" : "/#");
+                      active.add(client.listenTopic(filter).subscribe());
+                      if (active.size() > 20 || random.nextInt(3) == 0) active.poll().dispose();
+                    }
+                    active.forEach(Disposable::dispose);
+                  }));
+        for (Future<?> registration : registrations) registration.get(60, TimeUnit.SECONDS);
+        running.set(false);
+        dispatching.get(10, TimeUnit.SECONDS);
+
+        // every filter lost its last listener: no meters and no subscriptions are left
+        Assert.assertTrue(meterRegistry.find("touchmenu.mqtt.listener.dropped").meters().isEmpty());
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (int i = 0; i < TOPICS; i++)
+          while (broker.hasSubscription("stress/" + i + "/value")
+              || broker.hasSubscription("stress/" + i + "/#")) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+          }
+
+        // and a new listener gets registered as usual
+        final CountDownLatch received = new CountDownLatch(1);
+        final Disposable listener =
+            client.listenTopic("stress/0/value").subscribe(message -> received.countDown());
+        client.dispatch("stress/0/value", new MqttMessage("value".getBytes()));
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        listener.dispose();
+      } finally {
+        client.close();
+      }
+    } finally {
+      workers.shutdownNow();
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void testLatestPolicyWithSlowConsumer() throws Exception {
+    final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final PahoMqttClient client =
+        new PahoMqttClient(
+            new MenuProperties(),
+            new SimpleDiscoveryClient(new SimpleDiscoveryProperties()),
+            executorService,
+            meterRegistry);
+    try {
+      final CountDownLatch proceed = new CountDownLatch(1);
+      final List<String> values = new CopyOnWriteArrayList<>();
+      final List<Disposable> disposables = new ArrayList<>();
+      client.registerTopic(
+          "sensor/value",
+          OverflowPolicy.latest(),
+          message -> {
+            values.add(message.getPayloadAsString());
+            try {
+              proceed.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          },
+          disposables::add);
+      for (int i = 0; i < 100; i++)
+        client.dispatch("sensor/value", new MqttMessage(Integer.toString(i).getBytes()));
+      // the consumer is still busy with the first value, only the latest one waits
+      Assert.assertTrue(
+          meterRegistry.get("touchmenu.mqtt.listener.dropped").counter().count() >= 97);
+      proceed.countDown();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (!values.contains("99")) {
+        Assert.assertTrue(System.nanoTime() < deadline);
+        Thread.sleep(10);
+      }
+      Assert.assertTrue(values.size() <= 3);
+      disposables.forEach(Disposable::dispose);
+    } finally {
+      client.close();
+      executorService.shutdown();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.PublishPolicy;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttPubAck;
+import org.eclipse.paho.client.mqttv3.internal.wire.MqttWireMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class PublishCoalescerTest {
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+  private final List<MqttMessage> sentMessages = new ArrayList<>();
+  private final List<DirectProcessor<MqttWireMessage>> responses = new ArrayList<>();
+
+  @After
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  @Test
+  public void testReplacePendingMessage() {
+    final PublishCoalescer coalescer =
+        new PublishCoalescer(Collections.emptyList(), executorService, this::send);
+    final List<MqttWireMessage> secondResponses = new ArrayList<>();
+    final List<MqttWireMessage> thirdResponses = new ArrayList<>();
+    coalescer.publish("light/value", message("1")).subscribe();
+    coalescer.publish("light/value", message("2")).subscribe(secondResponses::add);
+    coalescer.publish("light/value", message("3")).subscribe(thirdResponses::add);
+    coalescer.publish("light/other", message("4")).subscribe();
+    Assert.assertEquals(2, sentMessages.size());
+    Assert.assertEquals("4", new String(sentMessages.get(1).getPayload()));
+
+    complete(0, 1);
+    Assert.assertEquals(3, sentMessages.size());
+    Assert.assertEquals("3", new String(sentMessages.get(2).getPayload()));
+    complete(2, 3);
+    Assert.assertEquals(1, secondResponses.size());
+    Assert.assertSame(secondResponses.get(0), thirdResponses.get(0));
+  }
+
+  @Test
+  public void testPolicy() {
+    final PublishPolicy policy = new PublishPolicy();
+    policy.setTopic("screen/+/image");
+    policy.setCoalesce(false);
+    policy.setQos(0);
+    final PublishCoalescer coalescer =
+        new PublishCoalescer(Collections.singletonList(policy), executorService, this::send);
+    coalescer.publish("screen/kitchen/image", message("1")).subscribe();
+    coalescer.publish("screen/kitchen/image", message("2")).subscribe();
+    coalescer.publish("screen/kitchen/value", message("3")).subscribe();
+    coalescer.publish("screen/kitchen/value", message("4")).subscribe();
+    Assert.assertEquals(3, sentMessages.size());
+    Assert.assertEquals(0, sentMessages.get(0).getQos());
+    Assert.assertEquals(1, sentMessages.get(2).getQos());
+  }
+
+  @Test
+  public void testPolicyLeavesMessageUntouched() {
+    final PublishPolicy policy = new PublishPolicy();
+    policy.setQos(0);
+    policy.setRetained(true);
+    final PublishCoalescer coalescer =
+        new PublishCoalescer(Collections.singletonList(policy), executorService, this::send);
+    final MqttMessage message = message("1");
+    coalescer.publish("screen/kitchen/image", message).subscribe();
+    Assert.assertEquals(1, message.getQos());
+    Assert.assertFalse(message.isRetained());
+    Assert.assertNotSame(message, sentMessages.get(0));
+    Assert.assertEquals(0, sentMessages.get(0).getQos());
+    Assert.assertTrue(sentMessages.get(0).isRetained());
+    // a conforming message is sent as it is
+    final MqttMessage conforming = coalescer.applyPolicy("screen/kitchen/image", message);
+    Assert.assertSame(conforming, coalescer.applyPolicy("screen/kitchen/image", conforming));
+  }
+
+  @Test
+  public void testDropIdleAndCancelled() {
+    final PublishCoalescer coalescer =
+        new PublishCoalescer(Collections.emptyList(), executorService, this::send);
+    coalescer.publish("light/value", message("1")).subscribe();
+    final Disposable cancelled = coalescer.publish("light/value", message("2")).subscribe();
+    Assert.assertEquals(1, coalescer.topicCount());
+    cancelled.dispose();
+    complete(0, 1);
+    // nobody waits for the pending message anymore, and the idle topic is forgotten
+    Assert.assertEquals(1, sentMessages.size());
+    Assert.assertEquals(0, coalescer.topicCount());
+
+    coalescer.publish("light/value", message("3")).subscribe();
+    Assert.assertEquals(2, sentMessages.size());
+  }
+
+  private Flux<MqttWireMessage> send(final String topic, final MqttMessage message) {
+    final DirectProcessor<MqttWireMessage> response = DirectProcessor.create();
+    sentMessages.add(message);
+    responses.add(response);
+    return response;
+  }
+
+  private void complete(final int index, final int messageId) {
+    final DirectProcessor<MqttWireMessage> response = responses.get(index);
+    response.onNext(new MqttPubAck(messageId));
+    response.onComplete();
+  }
+
+  private static MqttMessage message(final String content) {
+    final MqttMessage message = new MqttMessage(content.getBytes());
+    message.setQos(1);
+    return message;
+  }
+}
@@ -0,0 +1,90 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.RetainedQuota;
+import ch.bergturbenthal.home.touch.domain.settings.RetainedStoreSettings;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RetainedMessageStoreTest {
+  @Test
+  public void testBudgetAndQuota() {
+    final RetainedStoreSettings settings = new RetainedStoreSettings();
+    // topics of 3 characters, payloads of 7 bytes: 10 bytes per message
+    settings.setMaxSize(DataSize.ofBytes(50));
+    final RetainedQuota quota = new RetainedQuota();
+    quota.setPrefix("i/");
+    quota.setMaxSize(DataSize.ofBytes(20));
+    settings.getQuotas().add(quota);
+    final RetainedMessageStore store = new RetainedMessageStore(settings);
+
+    store.put("v/1", message("value-1"));
+    store.put("i/1", message("image-1"));
+    store.put("i/2", message("image-2"));
+    store.put("i/3", message("image-3"));
+    Assert.assertEquals(3, store.size());
+    Assert.assertEquals(30, store.bytes());
+    Assert.assertNull(content(store).get("i/1"));
+
+    store.put("v/1", message("value-2"));
+    store.put("v/2", message("value-3"));
+    store.put("v/3", message("value-4"));
+    store.put("v/4", message("value-5"));
+    Assert.assertEquals(5, store.size());
+    Assert.assertEquals(50, store.bytes());
+    Assert.assertNull(content(store).get("i/2"));
+    Assert.assertEquals("value-2", content(store).get("v/1"));
+    Assert.assertEquals(2, store.evictions());
+
+    store.remove("v/1");
+    Assert.assertEquals(40, store.bytes());
+  }
+
+  @Test
+  public void testOffHeap() {
+    final RetainedStoreSettings settings = new RetainedStoreSettings();
+    settings.setOffHeap(true);
+    final RetainedMessageStore store = new RetainedMessageStore(settings);
+    final MqttMessage message = message("value");
+    message.setQos(1);
+    store.put("v/1", message);
+    store.forEach(
+        (topic, stored) -> {
+          Assert.assertEquals("value", new String(stored.getPayload()));
+          Assert.assertEquals(1, stored.getQos());
+          Assert.assertTrue(stored.isRetained());
+        });
+  }
+
+  @Test
+  public void testPublished() {
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    store.putPublished("s/1/image", message("frame-1"));
+    store.putPublished("s/2/image", message("frame-1"));
+    store.put("sensor/1", message("21.5"));
+    // the echo of our own message keeps the mark, a message of someone else removes it
+    store.put("s/1/image", message("frame-1"));
+    store.put("s/2/image", message("frame-2"));
+    final Map<String, String> published = new LinkedHashMap<>();
+    store.forEachPublished(
+        (topic, message) -> published.put(topic, new String(message.getPayload())));
+    Assert.assertEquals(Collections.singletonMap("s/1/image", "frame-1"), published);
+  }
+
+  private static Map<String, String> content(final RetainedMessageStore store) {
+    final Map<String, String> content = new LinkedHashMap<>();
+    store.forEach((topic, message) -> content.put(topic, new String(message.getPayload())));
+    return content;
+  }
+
+  private static MqttMessage message(final String content) {
+    final MqttMessage message = new MqttMessage(content.getBytes());
+    message.setRetained(true);
+    return message;
+  }
+}
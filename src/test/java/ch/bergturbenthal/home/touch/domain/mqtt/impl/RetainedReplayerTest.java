@@ -0,0 +1,177 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.mqtt.broker.EmbeddedMqttBroker;
+import ch.bergturbenthal.home.touch.domain.settings.RetainedReplaySettings;
+import ch.bergturbenthal.home.touch.domain.settings.RetainedStoreSettings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetainedReplayerTest {
+  @Test
+  public void testReplayPublishedOnly() throws Exception {
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    for (int i = 0; i < 10; i++) store.putPublished("screen/" + i + "/image", message("frame"));
+    store.put("sensor/temperature", message("21.5"));
+    final RetainedReplaySettings settings = new RetainedReplaySettings();
+    settings.setMessagesPerSecond(50);
+    settings.setMaxInFlight(2);
+    final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final RetainedReplayer replayer =
+        new RetainedReplayer(settings, store, executorService, meterRegistry);
+    try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker()) {
+      final MqttAsyncClient client =
+          new MqttAsyncClient(broker.getUri().toString(), "replay-test", new MemoryPersistence());
+      client.connect().waitForCompletion(5000);
+      final CountDownLatch done = new CountDownLatch(1);
+      final long start = System.nanoTime();
+      replayer.replay(client, done::countDown);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      // 10 messages at 50 per second
+      Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+      Assert.assertArrayEquals("frame".getBytes(), broker.getRetained("screen/9/image"));
+      Assert.assertNull(broker.getRetained("sensor/temperature"));
+      Assert.assertEquals(
+          10, meterRegistry.get("touchmenu.mqtt.retained.replay.sent").counter().count(), 0);
+      Assert.assertEquals(
+          0, meterRegistry.get("touchmenu.mqtt.retained.replay.pending").gauge().value(), 0);
+      client.disconnect().waitForCompletion(5000);
+      client.close();
+    } finally {
+      replayer.close();
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void testRefusedMessageDoesNotStopReplay() throws Exception {
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    store.putPublished("screen/1/image", message("frame"));
+    store.putPublished("screen/2/image", message("broken"));
+    store.putPublished("screen/3/image", message("frame"));
+    final AtomicBoolean connected = new AtomicBoolean(true);
+    final List<String> published = new CopyOnWriteArrayList<>();
+    final IMqttAsyncClient client =
+        (IMqttAsyncClient)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {IMqttAsyncClient.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "isConnected":
+                      return connected.get();
+                    case "getServerURI":
+                      return "tcp://test:1883";
+                    case "publish":
+                      final MqttMessage message = (MqttMessage) args[1];
+                      if (!connected.get() || "broken".equals(new String(message.getPayload())))
+                        throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION);
+                      published.add((String) args[0]);
+                      ((IMqttActionListener) args[3]).onSuccess(null);
+                      return null;
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final RetainedReplayer replayer =
+        new RetainedReplayer(
+            new RetainedReplaySettings(), store, executorService, meterRegistry);
+    try {
+      // the broken message is skipped, the replay goes on and subscribing follows
+      final CountDownLatch done = new CountDownLatch(1);
+      replayer.replay(client, done::countDown);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(Arrays.asList("screen/1/image", "screen/3/image"), published);
+      Assert.assertEquals(
+          1, meterRegistry.get("touchmenu.mqtt.retained.replay.failed").counter().count(), 0);
+
+      // an aborted replay ends as well
+      connected.set(false);
+      final CountDownLatch aborted = new CountDownLatch(1);
+      replayer.replay(client, aborted::countDown);
+      Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(
+          0, meterRegistry.get("touchmenu.mqtt.retained.replay.pending").gauge().value(), 0);
+    } finally {
+      replayer.close();
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void testRetryWhenWindowFullOfOtherTraffic() throws Exception {
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    store.putPublished("screen/1/image", message("frame"));
+    store.putPublished("screen/2/image", message("frame"));
+    // the first attempts find the window of the client full with other messages
+    final AtomicInteger windowFull = new AtomicInteger(3);
+    final List<String> published = new CopyOnWriteArrayList<>();
+    final IMqttAsyncClient client =
+        (IMqttAsyncClient)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {IMqttAsyncClient.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "isConnected":
+                      return true;
+                    case "getServerURI":
+                      return "tcp://test:1883";
+                    case "publish":
+                      if (windowFull.getAndDecrement() > 0)
+                        throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+                      published.add((String) args[0]);
+                      ((IMqttActionListener) args[3]).onSuccess(null);
+                      return null;
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final RetainedReplayer replayer =
+        new RetainedReplayer(
+            new RetainedReplaySettings(), store, executorService, meterRegistry);
+    try {
+      final CountDownLatch done = new CountDownLatch(1);
+      replayer.replay(client, done::countDown);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      Assert.assertEquals(Arrays.asList("screen/1/image", "screen/2/image"), published);
+      Assert.assertEquals(
+          0, meterRegistry.get("touchmenu.mqtt.retained.replay.failed").counter().count(), 0);
+      Assert.assertEquals(
+          2, meterRegistry.get("touchmenu.mqtt.retained.replay.sent").counter().count(), 0);
+    } finally {
+      replayer.close();
+      executorService.shutdown();
+    }
+  }
+
+  private static MqttMessage message(final String content) {
+    final MqttMessage message = new MqttMessage(content.getBytes());
+    message.setQos(1);
+    message.setRetained(true);
+    return message;
+  }
+}
@@ -0,0 +1,90 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.RetainedStoreSettings;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class RetainedSnapshotTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testRestore() throws IOException {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("retained.snapshot");
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    store.put("settings/menu/main", message("{\"entries\":[]}", 1));
+    store.put("sensor/temperature", message("21.5", 0));
+    new RetainedSnapshot(file).write(store);
+
+    final RetainedMessageStore restoredStore =
+        new RetainedMessageStore(new RetainedStoreSettings());
+    Assert.assertEquals(2, new RetainedSnapshot(file).load(restoredStore));
+    final List<String> restored = new ArrayList<>();
+    restoredStore.forEach(
+        (topic, message) ->
+            restored.add(topic + "=" + new String(message.getPayload()) + "@" + message.getQos()));
+    Assert.assertEquals("settings/menu/main={\"entries\":[]}@1", restored.get(0));
+    Assert.assertEquals("sensor/temperature=21.5@0", restored.get(1));
+    final List<String> published = new ArrayList<>();
+    restoredStore.forEachPublished((topic, message) -> published.add(topic));
+    Assert.assertTrue(published.isEmpty());
+
+    // a flipped bit in the last record keeps the records before it
+    try (RandomAccessFile access = new RandomAccessFile(file.toFile(), "rw")) {
+      final long position = access.length() - 6;
+      access.seek(position);
+      final int value = access.read();
+      access.seek(position);
+      access.write(value ^ 1);
+    }
+    final RetainedMessageStore damagedStore =
+        new RetainedMessageStore(new RetainedStoreSettings());
+    Assert.assertEquals(1, new RetainedSnapshot(file).load(damagedStore));
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    final Path file = temporaryFolder.getRoot().toPath().resolve("retained.snapshot");
+    final RetainedMessageStore store = new RetainedMessageStore(new RetainedStoreSettings());
+    final RetainedSnapshot snapshot = new RetainedSnapshot(file);
+    final ExecutorService writers = Executors.newFixedThreadPool(2);
+    try {
+      final List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 2; t++)
+        results.add(
+            writers.submit(
+                () -> {
+                  for (int i = 0; i < 200; i++) {
+                    store.put("sensor/" + i % 20, message(Integer.toString(i), 1));
+                    snapshot.write(store);
+                  }
+                  return null;
+                }));
+      for (Future<?> result : results) result.get(30, TimeUnit.SECONDS);
+    } finally {
+      writers.shutdownNow();
+    }
+    final RetainedMessageStore restoredStore =
+        new RetainedMessageStore(new RetainedStoreSettings());
+    Assert.assertEquals(20, new RetainedSnapshot(file).load(restoredStore));
+  }
+
+  private static MqttMessage message(final String content, final int qos) {
+    final MqttMessage message = new MqttMessage(content.getBytes());
+    message.setQos(qos);
+    message.setRetained(true);
+    return message;
+  }
+}
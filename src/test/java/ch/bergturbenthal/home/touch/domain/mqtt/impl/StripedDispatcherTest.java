@@ -0,0 +1,139 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.DispatchSettings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class StripedDispatcherTest {
+  @Test
+  public void testOrderPerTopicAndIsolation() throws InterruptedException {
+    final DispatchSettings settings = new DispatchSettings();
+    settings.setThreads(4);
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final StripedDispatcher dispatcher = new StripedDispatcher(settings, meterRegistry);
+    try {
+      // a stalled listener on one topic must not hold back topics on other threads
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch stalled = new CountDownLatch(1);
+      final String slowTopic = "screen/slow";
+      dispatcher.dispatch(
+          slowTopic,
+          () -> {
+            stalled.countDown();
+            awaitQuietly(release);
+          });
+      // the wait of a message is recorded when its handling starts
+      Assert.assertTrue(stalled.await(5, TimeUnit.SECONDS));
+
+      final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch done = new CountDownLatch(1);
+      final String fastTopic = findTopicOnOtherLane(slowTopic, 4);
+      for (int i = 0; i < 100; i++) {
+        final int value = i;
+        dispatcher.dispatch(fastTopic, () -> received.add(value));
+      }
+      dispatcher.dispatch(fastTopic, done::countDown);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 100; i++) Assert.assertEquals(i, (int) received.get(i));
+      release.countDown();
+      Assert.assertEquals(102, meterRegistry.get("touchmenu.mqtt.dispatch.wait").timer().count());
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  @Test
+  public void testLaneSurvivesError() throws InterruptedException {
+    final DispatchSettings settings = new DispatchSettings();
+    settings.setThreads(1);
+    final StripedDispatcher dispatcher = new StripedDispatcher(settings, new SimpleMeterRegistry());
+    try {
+      dispatcher.dispatch(
+          "screen/broken",
+          () -> {
+            throw new AssertionError("listener failed");
+          });
+      final CountDownLatch done = new CountDownLatch(1);
+      dispatcher.dispatch("screen/broken", done::countDown);
+      Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  @Test
+  public void testFullLaneDropsNewest() throws InterruptedException {
+    Assert.assertEquals(
+        Arrays.asList(0, 1, 2), dispatchToFullLane(DispatchSettings.DispatchOverflow.DROP_NEWEST));
+  }
+
+  @Test
+  public void testFullLaneDropsOldest() throws InterruptedException {
+    Assert.assertEquals(
+        Arrays.asList(0, 3, 4), dispatchToFullLane(DispatchSettings.DispatchOverflow.DROP_OLDEST));
+  }
+
+  /** Message 0 stalls the lane, 1 to 4 arrive at a queue of 2, the handled messages are returned. */
+  private static List<Integer> dispatchToFullLane(final DispatchSettings.DispatchOverflow overflow)
+      throws InterruptedException {
+    final DispatchSettings settings = new DispatchSettings();
+    settings.setThreads(1);
+    settings.setQueueCapacity(2);
+    settings.setOverflow(overflow);
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final StripedDispatcher dispatcher = new StripedDispatcher(settings, meterRegistry);
+    try {
+      final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch stalled = new CountDownLatch(1);
+      dispatcher.dispatch(
+          "screen/slow",
+          () -> {
+            received.add(0);
+            stalled.countDown();
+            awaitQuietly(release);
+          });
+      Assert.assertTrue(stalled.await(5, TimeUnit.SECONDS));
+      // the receiving thread must not wait for the stalled lane
+      final long started = System.nanoTime();
+      for (int i = 1; i <= 4; i++) {
+        final int value = i;
+        dispatcher.dispatch("screen/slow", () -> received.add(value));
+      }
+      Assert.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+      Assert.assertEquals(
+          2, meterRegistry.get("touchmenu.mqtt.dispatch.dropped").counter().count(), 0);
+
+      release.countDown();
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (received.size() < 3 && System.nanoTime() < deadline) Thread.sleep(10);
+      return new ArrayList<>(received);
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  private static String findTopicOnOtherLane(final String topic, final int lanes) {
+    for (int i = 0; ; i++) {
+      final String candidate = "screen/fast-" + i;
+      if (Math.floorMod(candidate.hashCode(), lanes) != Math.floorMod(topic.hashCode(), lanes))
+        return candidate;
+    }
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
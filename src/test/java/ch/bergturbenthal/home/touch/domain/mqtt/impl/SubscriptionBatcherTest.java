@@ -0,0 +1,149 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import ch.bergturbenthal.home.touch.domain.settings.SubscriptionSettings;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class SubscriptionBatcherTest {
+  private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+  private final List<String> calls = new CopyOnWriteArrayList<>();
+  private final IMqttAsyncClient client =
+      (IMqttAsyncClient)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {IMqttAsyncClient.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "isConnected":
+                    return true;
+                  case "hashCode":
+                    return System.identityHashCode(proxy);
+                  case "equals":
+                    return proxy == args[0];
+                  case "subscribe":
+                  case "unsubscribe":
+                    // widens the window for batches overtaking each other
+                    Thread.sleep(0, 200_000);
+                    calls.add(method.getName() + Arrays.toString((Object[]) args[0]));
+                    return null;
+                  default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+              });
+
+  @After
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  @Test
+  public void testBatchAndGracePeriod() throws InterruptedException {
+    final SubscriptionSettings settings = new SubscriptionSettings();
+    settings.setBatchWindow(Duration.ofMillis(50));
+    settings.setUnsubscribeGrace(Duration.ofMillis(200));
+    final SubscriptionBatcher batcher =
+        new SubscriptionBatcher(
+            settings, executorService, () -> Collections.singletonList(client));
+    batcher.subscribe("a");
+    batcher.subscribe("b");
+    batcher.subscribe("c");
+    batcher.unsubscribe("c");
+    Thread.sleep(150);
+    Assert.assertEquals(Collections.singletonList("subscribe[a, b]"), calls);
+
+    batcher.unsubscribe("a");
+    batcher.subscribe("a");
+    batcher.unsubscribe("b");
+    Thread.sleep(400);
+    Assert.assertEquals(Arrays.asList("subscribe[a, b]", "unsubscribe[b]"), calls);
+    Assert.assertArrayEquals(new String[] {"a"}, batcher.activeTopics());
+  }
+
+  @Test
+  public void testHeldBrokerGetsUnsubscribes() throws InterruptedException {
+    final SubscriptionSettings settings = new SubscriptionSettings();
+    settings.setBatchWindow(Duration.ofMillis(50));
+    settings.setUnsubscribeGrace(Duration.ZERO);
+    final SubscriptionBatcher batcher =
+        new SubscriptionBatcher(
+            settings, executorService, () -> Collections.singletonList(client));
+    batcher.subscribe("a");
+    Thread.sleep(150);
+
+    // the broker got "a" before it was held, it has to lose it while held
+    batcher.hold(client);
+    batcher.unsubscribe("a");
+    batcher.subscribe("b");
+    Thread.sleep(150);
+    Assert.assertEquals(Arrays.asList("subscribe[a]", "unsubscribe[a]"), calls);
+
+    // "c" is not sent yet and dropped again without an UNSUBSCRIBE, the broker must not get it
+    batcher.subscribe("c");
+    batcher.subscribeActive(client);
+    batcher.unsubscribe("c");
+    Thread.sleep(150);
+    Assert.assertEquals(Arrays.asList("subscribe[a]", "unsubscribe[a]", "subscribe[b]"), calls);
+  }
+
+  @Test
+  public void testOrderUnderConcurrency() throws Exception {
+    final ScheduledExecutorService flushExecutor = Executors.newScheduledThreadPool(4);
+    final SubscriptionSettings settings = new SubscriptionSettings();
+    settings.setBatchWindow(Duration.ofNanos(100_000));
+    settings.setUnsubscribeGrace(Duration.ofNanos(300_000));
+    final SubscriptionBatcher batcher =
+        new SubscriptionBatcher(settings, flushExecutor, () -> Collections.singletonList(client));
+    final ExecutorService workers = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final String topic = "t" + t;
+        results.add(
+            workers.submit(
+                () -> {
+                  final ThreadLocalRandom random = ThreadLocalRandom.current();
+                  for (int i = 0; i < 300; i++) {
+                    batcher.subscribe(topic);
+                    LockSupport.parkNanos(random.nextInt(400_000));
+                    batcher.unsubscribe(topic);
+                    LockSupport.parkNanos(random.nextInt(400_000));
+                  }
+                }));
+      }
+      for (Future<?> result : results) result.get(30, TimeUnit.SECONDS);
+      Thread.sleep(200);
+      // the calls in the order the broker got them leave no topic subscribed
+      final Set<String> subscribed = new HashSet<>();
+      for (String call : calls) {
+        final List<String> topics =
+            Arrays.asList(call.substring(call.indexOf('[') + 1, call.length() - 1).split(", "));
+        if (call.startsWith("subscribe")) subscribed.addAll(topics);
+        else subscribed.removeAll(topics);
+      }
+      Assert.assertEquals(Collections.emptySet(), subscribed);
+      Assert.assertEquals(0, batcher.activeTopics().length);
+    } finally {
+      workers.shutdownNow();
+      flushExecutor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package ch.bergturbenthal.home.touch.domain.mqtt.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TopicTrieTest {
+  private static final List<String> FILTERS =
+      Arrays.asList(
+          "sport/tennis/player1",
+          "sport/tennis/+",
+          "sport/#",
+          "sport/+/player1",
+          "+/+",
+          "+",
+          "#",
+          "/finance",
+          "+/tennis/#",
+          "$SYS/#");
+  private static final List<String> TOPICS =
+      Arrays.asList(
+          "sport",
+          "sport/",
+          "sport/tennis",
+          "sport/tennis/player1",
+          "sport/tennis/player1/ranking",
+          "sport/football/player1",
+          "/finance",
+          "finance",
+          "$SYS/monitor/clients",
+          "$SYS");
+
+  @Test
+  public void testWildcards() {
+    final TopicTrie<String> trie = new TopicTrie<>();
+    FILTERS.forEach(filter -> trie.put(filter, filter));
+    Assert.assertEquals(Arrays.asList("#", "+", "sport/#"), match(trie, "sport"));
+    Assert.assertEquals(
+        Arrays.asList(
+            "#",
+            "+/tennis/#",
+            "sport/#",
+            "sport/+/player1",
+            "sport/tennis/+",
+            "sport/tennis/player1"),
+        match(trie, "sport/tennis/player1"));
+    Assert.assertEquals(Arrays.asList("#", "+/+", "/finance"), match(trie, "/finance"));
+    Assert.assertEquals(Collections.singletonList("$SYS/#"), match(trie, "$SYS/monitor/clients"));
+    Assert.assertEquals(Collections.singletonList("$SYS/#"), match(trie, "$SYS"));
+  }
+
+  @Test
+  public void testMatchesAgreesWithTrie() {
+    final TopicTrie<String> trie = new TopicTrie<>();
+    FILTERS.forEach(filter -> trie.put(filter, filter));
+    for (String topic : TOPICS) {
+      final List<String> expected = new ArrayList<>();
+      for (String filter : FILTERS) if (TopicTrie.matches(filter, topic)) expected.add(filter);
+      Collections.sort(expected);
+      Assert.assertEquals(topic, expected, match(trie, topic));
+      Assert.assertEquals(topic, !expected.isEmpty(), trie.hasMatch(topic));
+    }
+  }
+
+  @Test
+  public void testRemovePrunes() {
+    final TopicTrie<String> trie = new TopicTrie<>();
+    trie.put("a/b/c", "abc");
+    trie.put("a/+", "a+");
+    trie.remove("a/b/c");
+    Assert.assertNull(trie.get("a/b/c"));
+    Assert.assertEquals("a+", trie.get("a/+"));
+    Assert.assertEquals(Collections.singletonList("a+"), match(trie, "a/b"));
+    trie.remove("a/+");
+    Assert.assertEquals(Collections.emptyList(), match(trie, "a/b"));
+  }
+
+  @Test
+  public void testConcurrentModifications() throws Exception {
+    final TopicTrie<String> trie = new TopicTrie<>();
+    final int threads = 4;
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        // only this thread touches its filter, but all threads keep pruning the shared prefix
+        final String own = "screen/touch/" + t;
+        results.add(
+            executorService.submit(
+                () -> {
+                  for (int i = 0; i < 100000; i++) {
+                    trie.put(own, own);
+                    Assert.assertEquals(own, trie.get(own));
+                    trie.remove(own);
+                    Assert.assertNull(trie.get(own));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> result : results) result.get(60, TimeUnit.SECONDS);
+    } finally {
+      executorService.shutdownNow();
+    }
+    Assert.assertFalse(trie.hasMatch("screen/touch/0"));
+  }
+
+  private static List<String> match(final TopicTrie<String> trie, final String topic) {
+    final List<String> result = new ArrayList<>();
+    trie.forEachMatch(topic, result::add);
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -1,13 +1,23 @@
 package ch.bergturbenthal.home.touch.domain.renderer;
 
 import ch.bergturbenthal.home.touch.domain.settings.DisplaySettings;
+import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.DefaultResourceLoader;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
 public class DisplayRendererTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void testRenderDefault() throws IOException {
     render(DisplaySettings.DisplayOrientation.DEFAULT, "target/default.png");
@@ -16,15 +26,119 @@ public class DisplayRendererTest {
     render(DisplaySettings.DisplayOrientation.UPSIDE_DOWN, "target/upside_down.png");
   }
 
+  @Test
+  public void testDeviceOrientedRendering() {
+    for (DisplaySettings.DisplayOrientation orientation :
+        DisplaySettings.DisplayOrientation.values()) {
+      final DisplaySettings settings = new DisplaySettings();
+      settings.setOrientation(orientation);
+      final DisplayRenderer rotatingRenderer = createRenderer(settings, false);
+      final DisplayRenderer deviceOrientedRenderer = createRenderer(settings, true);
+      renderOrientationExamples(rotatingRenderer);
+      renderOrientationExamples(deviceOrientedRenderer);
+      final BufferedImage expected = rotatingRenderer.renderFrame();
+      final BufferedImage actual = deviceOrientedRenderer.renderFrame();
+      Assert.assertEquals(orientation.name(), expected.getWidth(), actual.getWidth());
+      Assert.assertEquals(orientation.name(), expected.getHeight(), actual.getHeight());
+      for (int x = 0; x < expected.getWidth(); x++)
+        for (int y = 0; y < expected.getHeight(); y++)
+          Assert.assertEquals(
+              orientation + " at " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+    }
+  }
+
+  @Test
+  public void testTouchPositionMatchesDrawing() {
+    for (DisplaySettings.DisplayOrientation orientation :
+        DisplaySettings.DisplayOrientation.values()) {
+      final DisplaySettings settings = new DisplaySettings();
+      settings.setOrientation(orientation);
+      final DisplayRenderer renderer = createRenderer(settings, true);
+      final DisplayRenderer.ZoneAddress zone =
+          DisplayRenderer.ZoneAddress.builder().row(3).column(1).build();
+      renderer.fillShape(Shapes.UP_ARROW, zone);
+      final Rectangle2D touchZone = renderer.getTouchZone(zone, 0);
+      final BufferedImage frame = renderer.renderFrame();
+      int drawnPixels = 0;
+      for (int x = 0; x < frame.getWidth(); x++)
+        for (int y = 0; y < frame.getHeight(); y++)
+          if (frame.getRGB(x, y) == Color.BLACK.getRGB()) {
+            drawnPixels++;
+            Assert.assertTrue(
+                orientation + " at " + x + "," + y,
+                touchZone.contains(renderer.calcTouchPosition(x, y)));
+          }
+      Assert.assertTrue(drawnPixels > 0);
+    }
+  }
+
+  @Test
+  public void testIconFromAtlas() throws IOException {
+    final File iconFile = temporaryFolder.newFile("icon.png");
+    final BufferedImage icon = new BufferedImage(32, 16, BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D iconGraphics = icon.createGraphics();
+    iconGraphics.setColor(Color.BLACK);
+    iconGraphics.fillRect(4, 4, 24, 8);
+    ImageIO.write(icon, "png", iconFile);
+
+    final SpriteAtlas spriteAtlas = new SpriteAtlas(16, new DefaultResourceLoader());
+    final DisplayRenderer.ZoneAddress zone =
+        DisplayRenderer.ZoneAddress.builder().row(1).column(0).colSpan(2).build();
+    for (DisplaySettings.DisplayOrientation orientation :
+        DisplaySettings.DisplayOrientation.values()) {
+      final DisplaySettings settings = new DisplaySettings();
+      settings.setOrientation(orientation);
+      final DisplayRenderer renderer = createRenderer(settings, true, spriteAtlas);
+      renderer.drawIcon(iconFile.toURI().toString(), zone);
+      renderer.drawIcon(iconFile.toURI().toString(), zone);
+      final Rectangle2D touchZone = renderer.getTouchZone(zone, 0);
+      final BufferedImage frame = renderer.renderFrame();
+      int drawnPixels = 0;
+      for (int x = 0; x < frame.getWidth(); x++)
+        for (int y = 0; y < frame.getHeight(); y++)
+          if (frame.getRGB(x, y) == Color.BLACK.getRGB()) {
+            drawnPixels++;
+            Assert.assertTrue(
+                orientation + " at " + x + "," + y,
+                touchZone.contains(renderer.calcTouchPosition(x, y)));
+          }
+      Assert.assertTrue(drawnPixels > 0);
+    }
+    Assert.assertEquals(4, spriteAtlas.size());
+    Assert.assertEquals(4, spriteAtlas.getHitCount());
+  }
+
+  private DisplayRenderer createRenderer(
+      final DisplaySettings settings, final boolean deviceOriented) {
+    return createRenderer(
+        settings, deviceOriented, new SpriteAtlas(16, new DefaultResourceLoader()));
+  }
+
+  private DisplayRenderer createRenderer(
+      final DisplaySettings settings, final boolean deviceOriented, final SpriteAtlas spriteAtlas) {
+    return new DisplayRenderer(
+        settings, new TextLayoutCache(16), spriteAtlas, new PngEncoderPool(4, 1), deviceOriented);
+  }
+
   private void render(final DisplaySettings.DisplayOrientation orientation, final String filename)
       throws IOException {
     final DisplaySettings settings = new DisplaySettings();
     settings.setOrientation(orientation);
-    final DisplayRenderer displayRenderer = new DisplayRenderer(settings);
+    final DisplayRenderer displayRenderer = createRenderer(settings, false);
     renderExamples(displayRenderer);
     displayRenderer.render(new FileOutputStream(filename));
   }
 
+  /** The examples plus a left aligned text, which reveals off by one pixel rotations. */
+  private void renderOrientationExamples(final DisplayRenderer displayRenderer) {
+    renderExamples(displayRenderer);
+    displayRenderer.drawText(
+        "Temp. Soll",
+        DisplayRenderer.ZoneAddress.builder().row(3).column(0).build(),
+        DisplayRenderer.VerticalAlignment.TOP,
+        DisplayRenderer.HorizontalAlignment.LEFT);
+  }
+
   private void renderExamples(final DisplayRenderer displayRenderer) {
 
     displayRenderer.fillShape(
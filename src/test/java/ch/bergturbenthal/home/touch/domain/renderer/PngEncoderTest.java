@@ -0,0 +1,147 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class PngEncoderTest {
+  private final PngEncoder encoder = new PngEncoder(4);
+
+  @Test
+  public void testSameContentAsImageIO() throws IOException, DataFormatException {
+    assertSameContent(createImage(128, 64));
+    assertSameContent(createImage(61, 17));
+  }
+
+  @Test
+  public void testSubImage() throws IOException, DataFormatException {
+    assertSameContent(createImage(128, 64).getSubimage(13, 5, 50, 40));
+  }
+
+  @Test
+  public void testEncoderReuse() throws IOException, DataFormatException {
+    assertSameContent(createImage(128, 64));
+    assertSameContent(createImage(8, 8));
+    assertSameContent(createImage(64, 128));
+  }
+
+  @Test
+  public void testPoolKeepsAtMostCapacityEncoders() throws IOException, DataFormatException {
+    final PngEncoderPool pool = new PngEncoderPool(4, 2);
+    final BufferedImage image = createImage(61, 17);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    pool.encode(image, out);
+    Assert.assertEquals(1, pool.idleCount());
+    // encoding within an encoding forces the pool to create further encoders
+    final OutputStream reentrant =
+        new OutputStream() {
+          private int depth;
+
+          @Override
+          public void write(final int b) throws IOException {
+            out.write(b);
+          }
+
+          @Override
+          public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            if (depth < 2) {
+              depth++;
+              pool.encode(image, new ByteArrayOutputStream());
+            }
+          }
+        };
+    pool.encode(image, reentrant);
+    Assert.assertEquals(2, pool.idleCount());
+    pool.close();
+    Assert.assertEquals(0, pool.idleCount());
+
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", expected);
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    pool.encode(image, actual);
+    Assert.assertArrayEquals(
+        inflate(readChunks(expected.toByteArray()).get("IDAT")),
+        inflate(readChunks(actual.toByteArray()).get("IDAT")));
+  }
+
+  private void assertSameContent(final BufferedImage image)
+      throws IOException, DataFormatException {
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", expected);
+    final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    encoder.encode(image, actual);
+
+    final Map<String, byte[]> expectedChunks = readChunks(expected.toByteArray());
+    final Map<String, byte[]> actualChunks = readChunks(actual.toByteArray());
+    Assert.assertEquals(expectedChunks.keySet(), actualChunks.keySet());
+    Assert.assertArrayEquals(expectedChunks.get("IHDR"), actualChunks.get("IHDR"));
+    Assert.assertArrayEquals(
+        inflate(expectedChunks.get("IDAT")), inflate(actualChunks.get("IDAT")));
+
+    final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(actual.toByteArray()));
+    for (int x = 0; x < image.getWidth(); x++)
+      for (int y = 0; y < image.getHeight(); y++)
+        Assert.assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+  }
+
+  private static BufferedImage createImage(final int width, final int height) {
+    final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+    final Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.WHITE);
+    graphics.fillRect(0, 0, width, height);
+    graphics.setColor(Color.BLACK);
+    graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 20));
+    graphics.drawString("22.0°C", 3, height / 2);
+    graphics.fillOval(width / 2, 2, width / 3, height / 3);
+    return image;
+  }
+
+  private static Map<String, byte[]> readChunks(final byte[] png) throws IOException {
+    final Map<String, byte[]> chunks = new LinkedHashMap<>();
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+    Assert.assertEquals(0x89504e47, in.readInt());
+    Assert.assertEquals(0x0d0a1a0a, in.readInt());
+    while (in.available() > 0) {
+      final byte[] data = new byte[in.readInt()];
+      final byte[] type = new byte[4];
+      in.readFully(type);
+      in.readFully(data);
+      in.readInt();
+      final String typeName = new String(type);
+      final byte[] existing = chunks.get(typeName);
+      if (existing == null) chunks.put(typeName, data);
+      else {
+        final byte[] merged = new byte[existing.length + data.length];
+        System.arraycopy(existing, 0, merged, 0, existing.length);
+        System.arraycopy(data, 0, merged, existing.length, data.length);
+        chunks.put(typeName, merged);
+      }
+    }
+    return chunks;
+  }
+
+  private static byte[] inflate(final byte[] data) throws DataFormatException {
+    final Inflater inflater = new Inflater();
+    inflater.setInput(data);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1024];
+    while (!inflater.finished()) {
+      final int count = inflater.inflate(buffer);
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,88 @@
+package ch.bergturbenthal.home.touch.domain.renderer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SpriteAtlasTest {
+  @Test
+  public void testSlowIconDoesNotBlockAtlas() throws Exception {
+    final BufferedImage icon = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D iconGraphics = icon.createGraphics();
+    iconGraphics.setColor(Color.BLACK);
+    iconGraphics.fillRect(2, 2, 4, 4);
+    final ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(icon, "png", png);
+
+    final CountDownLatch loading = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final SpriteAtlas spriteAtlas =
+        new SpriteAtlas(
+            16,
+            new DefaultResourceLoader() {
+              @Override
+              public Resource getResource(final String location) {
+                return new AbstractResource() {
+                  @Override
+                  public String getDescription() {
+                    return location;
+                  }
+
+                  @Override
+                  public InputStream getInputStream() throws IOException {
+                    loading.countDown();
+                    try {
+                      release.await();
+                    } catch (InterruptedException e) {
+                      throw new InterruptedIOException();
+                    }
+                    return new ByteArrayInputStream(png.toByteArray());
+                  }
+                };
+              }
+            });
+    final ExecutorService executorService = Executors.newFixedThreadPool(2);
+    try {
+      // two threads miss the same icon and stall while loading it
+      final Future<Sprite> first =
+          executorService.submit(
+              () -> spriteAtlas.getIcon(new SpriteAtlas.IconKey().set("slow.png", 8, 8, 0)));
+      final Future<Sprite> second =
+          executorService.submit(
+              () -> spriteAtlas.getIcon(new SpriteAtlas.IconKey().set("slow.png", 8, 8, 0)));
+      Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+      // meanwhile the atlas still serves other sprites
+      final SpriteAtlas.ShapeKey shapeKey =
+          new SpriteAtlas.ShapeKey()
+              .set(Shapes.UP_ARROW, true, new BasicStroke(), new AffineTransform(), 0);
+      Assert.assertNotNull(spriteAtlas.getShape(shapeKey));
+      Assert.assertSame(spriteAtlas.getShape(shapeKey), spriteAtlas.getShape(shapeKey));
+
+      // both get the sprite stored first
+      release.countDown();
+      Assert.assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+      Assert.assertEquals(2, spriteAtlas.size());
+    } finally {
+      release.countDown();
+      executorService.shutdownNow();
+    }
+  }
+}